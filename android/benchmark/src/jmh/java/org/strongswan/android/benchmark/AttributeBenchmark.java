@@ -0,0 +1,120 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.strongswan.android.logic.imc.attributes.DeviceIdAttribute;
+import org.strongswan.android.logic.imc.attributes.InstalledPackagesAttribute;
+import org.strongswan.android.logic.imc.attributes.PortFilterAttribute;
+import org.strongswan.android.logic.imc.attributes.ProductInformationAttribute;
+import org.strongswan.android.logic.imc.attributes.SettingsAttribute;
+import org.strongswan.android.logic.imc.attributes.StringVersionAttribute;
+import org.strongswan.android.logic.imc.collectors.Protocol;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Encodes each of the PA-TNC attributes sent by the IMC, filled like the collectors would on a
+ * typical device.  The number of installed packages varies, as that attribute is by far the
+ * largest.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class AttributeBenchmark
+{
+	@Param({"100", "500"})
+	public int mPackages;
+
+	private DeviceIdAttribute mDeviceId;
+	private InstalledPackagesAttribute mInstalledPackages;
+	private PortFilterAttribute mPortFilter;
+	private ProductInformationAttribute mProductInformation;
+	private SettingsAttribute mSettings;
+	private StringVersionAttribute mStringVersion;
+
+	@Setup
+	public void setup()
+	{
+		mDeviceId = new DeviceIdAttribute();
+		mDeviceId.setDeviceId("9774d56d682e549c");
+
+		mInstalledPackages = new InstalledPackagesAttribute();
+		for (String[] pkg : ReferenceData.installedPackages(mPackages))
+		{
+			mInstalledPackages.addPackage(pkg[0], pkg[1]);
+		}
+
+		mPortFilter = new PortFilterAttribute();
+		for (int i = 0; i < 32; i++)
+		{
+			mPortFilter.addPort(i % 3 == 0 ? Protocol.UDP : Protocol.TCP, (short)(1024 + i * 997));
+		}
+
+		mProductInformation = new ProductInformationAttribute();
+
+		mSettings = new SettingsAttribute();
+		mSettings.addSetting("install_non_market_apps", "0");
+		mSettings.addSetting("android_id", "9774d56d682e549c");
+		mSettings.addSetting("adb_enabled", "1");
+
+		mStringVersion = new StringVersionAttribute();
+		mStringVersion.setProductVersionNumber("14");
+		mStringVersion.setInternalBuildNumber("UP1A.231005.007");
+	}
+
+	@Benchmark
+	public byte[] deviceId()
+	{
+		return mDeviceId.getEncoding();
+	}
+
+	@Benchmark
+	public byte[] installedPackages()
+	{
+		return mInstalledPackages.getEncoding();
+	}
+
+	@Benchmark
+	public byte[] portFilter()
+	{
+		return mPortFilter.getEncoding();
+	}
+
+	@Benchmark
+	public byte[] productInformation()
+	{
+		return mProductInformation.getEncoding();
+	}
+
+	@Benchmark
+	public byte[] settings()
+	{
+		return mSettings.getEncoding();
+	}
+
+	@Benchmark
+	public byte[] stringVersion()
+	{
+		return mStringVersion.getEncoding();
+	}
+}
@@ -0,0 +1,151 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.strongswan.android.utils.BufferedByteWriter;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Writes a number of values with each of the putters into a new writer, starting either with
+ * the default capacity, which has to grow, or with enough capacity for all values.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class BufferedByteWriterBenchmark
+{
+	private static final int VALUES = 256;
+
+	@Param({"false", "true"})
+	public boolean mPresized;
+
+	private byte[][] mChunks = new byte[VALUES][];
+	private int mChunksLength;
+
+	@Setup
+	public void setup()
+	{
+		Random random = new Random(VALUES);
+		for (int i = 0; i < VALUES; i++)
+		{
+			mChunks[i] = new byte[random.nextInt(64)];
+			random.nextBytes(mChunks[i]);
+			mChunksLength += mChunks[i].length;
+		}
+	}
+
+	private BufferedByteWriter create(int length)
+	{
+		return mPresized ? new BufferedByteWriter(length) : new BufferedByteWriter();
+	}
+
+	@Benchmark
+	public byte[] put8()
+	{
+		BufferedByteWriter writer = create(VALUES);
+		for (int i = 0; i < VALUES; i++)
+		{
+			writer.put((byte)i);
+		}
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] put16()
+	{
+		BufferedByteWriter writer = create(VALUES * 2);
+		for (int i = 0; i < VALUES; i++)
+		{
+			writer.put16((short)i);
+		}
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] put24()
+	{
+		BufferedByteWriter writer = create(VALUES * 3);
+		for (int i = 0; i < VALUES; i++)
+		{
+			writer.put24(i);
+		}
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] put32()
+	{
+		BufferedByteWriter writer = create(VALUES * 4);
+		for (int i = 0; i < VALUES; i++)
+		{
+			writer.put32(i);
+		}
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] put64()
+	{
+		BufferedByteWriter writer = create(VALUES * 8);
+		for (int i = 0; i < VALUES; i++)
+		{
+			writer.put64((long)i);
+		}
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] putBytes()
+	{
+		BufferedByteWriter writer = create(mChunksLength);
+		for (byte[] chunk : mChunks)
+		{
+			writer.put(chunk);
+		}
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] putLen8()
+	{
+		BufferedByteWriter writer = create(mChunksLength + VALUES);
+		for (byte[] chunk : mChunks)
+		{
+			writer.putLen8(chunk);
+		}
+		return writer.toByteArray();
+	}
+
+	@Benchmark
+	public byte[] putLen16()
+	{
+		BufferedByteWriter writer = create(mChunksLength + VALUES * 2);
+		for (byte[] chunk : mChunks)
+		{
+			writer.putLen16(chunk);
+		}
+		return writer.toByteArray();
+	}
+}
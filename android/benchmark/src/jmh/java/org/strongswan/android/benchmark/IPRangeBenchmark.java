@@ -0,0 +1,125 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.strongswan.android.utils.IPRange;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations on individual ranges.  Each operation cycles through a set of inputs taken from the
+ * reference CIDR list, so results don't depend on a single (possibly trivial) input.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class IPRangeBenchmark
+{
+	private static final int INPUTS = 1024;
+
+	private String[] mCidrs4 = new String[INPUTS];
+	private String[] mCidrs6 = new String[INPUTS];
+	private IPRange[] mRanges = new IPRange[INPUTS];
+	private IPRange[] mAdjacent = new IPRange[INPUTS];
+	private IPRange[] mInner = new IPRange[INPUTS];
+	private IPRange[] mUnaligned = new IPRange[INPUTS];
+	private int mNext;
+
+	@Setup
+	public void setup() throws UnknownHostException
+	{
+		List<String> cidrs4 = ReferenceData.countryCidrs(INPUTS, 0);
+		List<String> cidrs6 = ReferenceData.countryCidrs(INPUTS, 1);
+		for (int i = 0; i < INPUTS; i++)
+		{
+			mCidrs4[i] = cidrs4.get(i);
+			mCidrs6[i] = cidrs6.get(i);
+			/* mix address families, as found in configurations */
+			IPRange range = new IPRange(i % 4 == 0 ? mCidrs6[i] : mCidrs4[i]);
+			mRanges[i] = range;
+			/* the next range of the same size, which can be merged */
+			mAdjacent[i] = new IPRange(next(range.getTo()), range.getPrefix());
+			/* a single address in the middle, which splits the range when removed */
+			mInner[i] = new IPRange(middle(range), range.isIPv6() ? 128 : 32);
+			/* a range that is not aligned on either end, which results in many subnets */
+			mUnaligned[i] = new IPRange(next(range.getFrom()), mAdjacent[i].getTo());
+		}
+	}
+
+	private static InetAddress next(InetAddress addr) throws UnknownHostException
+	{
+		byte[] bytes = addr.getAddress();
+		for (int i = bytes.length - 1; i >= 0 && ++bytes[i] == 0; i--)
+		{
+			/* carry */
+		}
+		return InetAddress.getByAddress(bytes);
+	}
+
+	private static InetAddress middle(IPRange range) throws UnknownHostException
+	{
+		byte[] bytes = range.getFrom().getAddress();
+		int bit = range.getPrefix();
+		bytes[bit / 8] |= (byte)(0x80 >>> (bit % 8));
+		return InetAddress.getByAddress(bytes);
+	}
+
+	private int next()
+	{
+		return mNext++ & (INPUTS - 1);
+	}
+
+	@Benchmark
+	public IPRange parseIPv4() throws UnknownHostException
+	{
+		return new IPRange(mCidrs4[next()]);
+	}
+
+	@Benchmark
+	public IPRange parseIPv6() throws UnknownHostException
+	{
+		return new IPRange(mCidrs6[next()]);
+	}
+
+	@Benchmark
+	public IPRange merge()
+	{
+		int i = next();
+		return mRanges[i].merge(mAdjacent[i]);
+	}
+
+	@Benchmark
+	public List<IPRange> remove()
+	{
+		int i = next();
+		return mRanges[i].remove(mInner[i]);
+	}
+
+	@Benchmark
+	public List<IPRange> toSubnets()
+	{
+		return mUnaligned[next()].toSubnets();
+	}
+}
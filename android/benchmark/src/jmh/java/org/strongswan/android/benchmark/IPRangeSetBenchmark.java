@@ -0,0 +1,123 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.infra.Blackhole;
+import org.strongswan.android.utils.IPRange;
+import org.strongswan.android.utils.IPRangeSet;
+import org.strongswan.android.utils.SubnetCursor;
+
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Operations on sets of ranges, with country-like CIDR lists of different sizes (20% IPv6).
+ * <p>
+ * The remove benchmarks do what the service does with a profile's excluded subnets, i.e.
+ * remove them from everything, which results in about as many ranges as were removed.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IPRangeSetBenchmark
+{
+	@Param({"10", "1000", "10000", "100000"})
+	public int mSize;
+
+	private String mText;
+	private List<IPRange> mRanges;
+	private IPRangeSet mSet;
+	private IPRangeSet mComplement;
+
+	@Setup
+	public void setup()
+	{
+		mText = ReferenceData.join(ReferenceData.countryCidrs(mSize, 0.2));
+		mRanges = ReferenceData.shuffledRanges(mSize, 0.2);
+		mSet = IPRangeSet.fromString(mText);
+		mComplement = everything();
+		mComplement.remove(mSet);
+	}
+
+	private static IPRangeSet everything()
+	{
+		return IPRangeSet.fromString("0.0.0.0/0 ::/0");
+	}
+
+	@Benchmark
+	public IPRangeSet fromString()
+	{
+		return IPRangeSet.fromString(mText);
+	}
+
+	@Benchmark
+	public IPRangeSet addEach()
+	{
+		IPRangeSet set = new IPRangeSet();
+		for (IPRange range : mRanges)
+		{
+			set.add(range);
+		}
+		return set;
+	}
+
+	@Benchmark
+	public IPRangeSet removeEach()
+	{
+		IPRangeSet set = everything();
+		for (IPRange range : mRanges)
+		{
+			set.remove(range);
+		}
+		return set;
+	}
+
+	@Benchmark
+	public IPRangeSet removeSet()
+	{
+		IPRangeSet set = everything();
+		set.remove(mSet);
+		return set;
+	}
+
+	@Benchmark
+	public void subnets(Blackhole bh)
+	{
+		for (IPRange subnet : mComplement.subnets())
+		{
+			bh.consume(subnet);
+		}
+	}
+
+	@Benchmark
+	public void subnetCursor(Blackhole bh)
+	{
+		SubnetCursor cursor = mComplement.subnetCursor();
+		while (cursor.next())
+		{
+			bh.consume(cursor.getAddressHigh());
+			bh.consume(cursor.getAddressLow());
+			bh.consume(cursor.getPrefix());
+		}
+	}
+}
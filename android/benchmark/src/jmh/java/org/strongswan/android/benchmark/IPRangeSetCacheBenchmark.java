@@ -0,0 +1,115 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.strongswan.android.utils.IPRange;
+import org.strongswan.android.utils.IPRangeSet;
+import org.strongswan.android.utils.IPRangeSetCache;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Loading a profile's subnets like the service does when it creates the builder cache, i.e.
+ * parsing the included and excluded subnets and removing the latter from the former, compared
+ * to decoding the memory-mapped result of that from an {@link IPRangeSetCache} entry.
+ * <p>
+ * Decoding still builds the sets, so what the cache saves is the parsing and the removal.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+public class IPRangeSetCacheBenchmark
+{
+	private static final String KEY = "benchmark";
+
+	@Param({"10", "1000", "10000", "100000"})
+	public int mSize;
+
+	private String mIncluded;
+	private String mExcluded;
+	private File mDir;
+	private IPRangeSetCache mCache;
+
+	@Setup
+	public void setup() throws IOException
+	{
+		mIncluded = ReferenceData.join(ReferenceData.countryCidrs(mSize, 0.2));
+		/* excluding a shuffled subset splits many of the included subnets */
+		StringBuilder excluded = new StringBuilder();
+		for (IPRange range : ReferenceData.shuffledRanges(mSize / 10 + 1, 0.2))
+		{
+			excluded.append(range).append(' ');
+		}
+		mExcluded = excluded.toString();
+		mDir = Files.createTempDirectory("ranges").toFile();
+		mCache = new IPRangeSetCache(mDir);
+		mCache.put(KEY, parse());
+	}
+
+	@TearDown
+	public void tearDown()
+	{
+		for (File file : mDir.listFiles())
+		{
+			file.delete();
+		}
+		mDir.delete();
+	}
+
+	/**
+	 * Same as BuilderCache.loadSubnets() without the cache.
+	 */
+	@Benchmark
+	public IPRangeSet[] parse()
+	{
+		IPRangeSet includedv4 = new IPRangeSet(), includedv6 = new IPRangeSet();
+		for (IPRange range : IPRangeSet.fromString(mIncluded))
+		{
+			if (range.isIPv6())
+			{
+				includedv6.add(range);
+			}
+			else
+			{
+				includedv4.add(range);
+			}
+		}
+		IPRangeSet excluded = IPRangeSet.fromString(mExcluded);
+		IPRangeSet routesv4 = new IPRangeSet(), routesv6 = new IPRangeSet();
+		routesv4.add(includedv4);
+		routesv4.remove(excluded);
+		routesv6.add(includedv6);
+		routesv6.remove(excluded);
+		return new IPRangeSet[]{includedv4, includedv6, excluded, routesv4, routesv6};
+	}
+
+	@Benchmark
+	public IPRangeSet[] cached()
+	{
+		return mCache.get(KEY, 5);
+	}
+}
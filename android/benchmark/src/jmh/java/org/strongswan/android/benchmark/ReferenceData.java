@@ -0,0 +1,222 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.benchmark;
+
+import org.strongswan.android.utils.IPRange;
+import org.strongswan.android.utils.SettingsWriter;
+
+import java.net.UnknownHostException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Reference datasets used by the benchmarks.
+ * <p>
+ * They are generated with fixed seeds, so results are comparable between runs and machines
+ * without having to ship large files.  The CIDR lists model per-country allocation lists as used
+ * for split tunneling (e.g. the RIR based lists of ipdeny.com): sorted, mostly aligned blocks of
+ * varying size (mainly /14 to /24 resp. /29 to /48) with gaps, some of them adjacent, distributed
+ * over a few allocated blocks.  A country like China has about 9k IPv4 entries, the US about 60k.
+ */
+public class ReferenceData
+{
+	private static final long SEED = 0x5374726f6e675377L;
+	/* prefix lengths (and their weights) found in country lists */
+	private static final int[] PREFIXES_IPV4 = {14, 15, 16, 17, 18, 19, 20, 21, 22, 23, 24};
+	private static final int[] WEIGHTS_IPV4 = {1, 1, 3, 2, 3, 4, 7, 8, 17, 12, 42};
+	private static final int[] PREFIXES_IPV6 = {29, 32, 36, 40, 44, 48};
+	private static final int[] WEIGHTS_IPV6 = {3, 55, 4, 5, 3, 30};
+	private static final String[] WORDS = {"android", "app", "browser", "camera", "chat", "cloud", "drive",
+		"email", "files", "fitness", "game", "gallery", "keyboard", "launcher", "maps", "media", "music",
+		"news", "notes", "pay", "phone", "photos", "player", "reader", "security", "shop", "social",
+		"sync", "translate", "video", "wallet", "weather"};
+	private static final String[] VENDORS = {"com.google", "com.android", "com.samsung", "org.mozilla",
+		"com.facebook", "com.microsoft", "org.strongswan", "com.spotify", "de.example", "io.github"};
+
+	/**
+	 * Generate a country-like list of IPv4 and IPv6 subnets in CIDR notation, sorted by address
+	 * within each family.
+	 *
+	 * @param count number of subnets
+	 * @param ipv6  fraction of IPv6 subnets (0-1)
+	 * @return list of subnets
+	 */
+	public static List<String> countryCidrs(int count, double ipv6)
+	{
+		Random random = new Random(SEED + count);
+		int v6 = (int)(count * ipv6);
+		List<String> cidrs = new ArrayList<>(count);
+		generate(random, cidrs, count - v6, false);
+		generate(random, cidrs, v6, true);
+		return cidrs;
+	}
+
+	/**
+	 * Same as above, parsed and in random order, as when ranges are added individually.
+	 */
+	public static List<IPRange> shuffledRanges(int count, double ipv6)
+	{
+		List<IPRange> ranges = new ArrayList<>(count);
+		try
+		{
+			for (String cidr : countryCidrs(count, ipv6))
+			{
+				ranges.add(new IPRange(cidr));
+			}
+		}
+		catch (UnknownHostException e)
+		{
+			throw new IllegalStateException(e);
+		}
+		Collections.shuffle(ranges, new Random(SEED));
+		return ranges;
+	}
+
+	/**
+	 * Join the given subnets as expected by IPRangeSet.fromString().
+	 */
+	public static String join(List<String> cidrs)
+	{
+		StringBuilder builder = new StringBuilder(cidrs.size() * 16);
+		for (String cidr : cidrs)
+		{
+			if (builder.length() > 0)
+			{
+				builder.append(' ');
+			}
+			builder.append(cidr);
+		}
+		return builder.toString();
+	}
+
+	private static void generate(Random random, List<String> cidrs, int count, boolean ipv6)
+	{
+		int[] prefixes = ipv6 ? PREFIXES_IPV6 : PREFIXES_IPV4;
+		int[] weights = ipv6 ? WEIGHTS_IPV6 : WEIGHTS_IPV4;
+		/* addresses are tracked in units of the longest prefix (/24 resp. /48) */
+		int longest = ipv6 ? 48 : 24;
+		long addr = 0;
+		/* spread the subnets over allocated blocks (/8 resp. /12) */
+		int blocks = Math.max(count / 1000, 1), block = -1;
+		for (int i = 0; i < count; i++)
+		{
+			if ((int)((long)i * blocks / count) != block)
+			{
+				block = (int)((long)i * blocks / count);
+				long start = ipv6 ? (long)(0x200 + block * 0x1e0 / blocks) << 36 : (long)(1 + block * 222 / blocks) << 16;
+				addr = Math.max(addr, start + random.nextInt(64) * (ipv6 ? 1L << 30 : 1L << 8));
+			}
+			int prefix = pick(random, prefixes, weights);
+			long size = 1L << (longest - prefix);
+			/* align the subnet, and leave a gap half of the time */
+			addr = (addr + size - 1) & -size;
+			if (random.nextBoolean())
+			{
+				addr += size * (1 + random.nextInt(2));
+			}
+			cidrs.add(ipv6 ? format6(addr, prefix) : format4(addr << 8, prefix));
+			addr += size;
+		}
+	}
+
+	private static int pick(Random random, int[] values, int[] weights)
+	{
+		int total = 0;
+		for (int weight : weights)
+		{
+			total += weight;
+		}
+		int choice = random.nextInt(total);
+		for (int i = 0; i < values.length; i++)
+		{
+			choice -= weights[i];
+			if (choice < 0)
+			{
+				return values[i];
+			}
+		}
+		return values[values.length - 1];
+	}
+
+	private static String format4(long addr, int prefix)
+	{
+		return String.format(Locale.US, "%d.%d.%d.%d/%d", (addr >>> 24) & 0xff, (addr >>> 16) & 0xff,
+							 (addr >>> 8) & 0xff, addr & 0xff, prefix);
+	}
+
+	private static String format6(long addr, int prefix)
+	{
+		return String.format(Locale.US, "%x:%x:%x::/%d", (addr >>> 32) & 0xffff, (addr >>> 16) & 0xffff,
+							 addr & 0xffff, prefix);
+	}
+
+	/**
+	 * Generate a list of installed packages (name and version), as reported by the IMC.  Typical
+	 * devices have about 100 (only system apps) to 500 packages.
+	 *
+	 * @param count number of packages
+	 * @return list of name/version pairs
+	 */
+	public static List<String[]> installedPackages(int count)
+	{
+		Random random = new Random(SEED + count);
+		List<String[]> packages = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			String name = VENDORS[random.nextInt(VENDORS.length)] + "." + WORDS[random.nextInt(WORDS.length)];
+			if (random.nextBoolean())
+			{
+				name += "." + WORDS[random.nextInt(WORDS.length)];
+			}
+			String version = String.format(Locale.US, "%d.%d.%d", random.nextInt(20), random.nextInt(100),
+										   random.nextInt(1000));
+			if (random.nextInt(4) == 0)
+			{
+				version += String.format(Locale.US, "-beta.%d (%d)", random.nextInt(10), 100000 + random.nextInt(900000));
+			}
+			packages.add(new String[]{name + "." + i, version});
+		}
+		return packages;
+	}
+
+	/**
+	 * Create a SettingsWriter with the configuration passed to the daemon for a typical profile.
+	 */
+	public static SettingsWriter settings()
+	{
+		SettingsWriter writer = new SettingsWriter();
+		writer.setValue("global.language", "en");
+		writer.setValue("global.mtu", 1400);
+		writer.setValue("global.nat_keepalive", 45);
+		writer.setValue("global.rsa_pss", false);
+		writer.setValue("global.crl", true);
+		writer.setValue("global.ocsp", true);
+		writer.setValue("connection.type", "ikev2-eap");
+		writer.setValue("connection.server", "vpn.example.com");
+		writer.setValue("connection.port", (Integer)null);
+		writer.setValue("connection.username", "user@example.com");
+		writer.setValue("connection.password", "p4ss\"word\\");
+		writer.setValue("connection.local_id", (String)null);
+		writer.setValue("connection.remote_id", "vpn.example.com");
+		writer.setValue("connection.certreq", true);
+		writer.setValue("connection.strict_revocation", false);
+		writer.setValue("connection.ike_proposal", "aes256-sha256-modp2048");
+		writer.setValue("connection.esp_proposal", "aes256gcm16");
+		return writer;
+	}
+}
@@ -0,0 +1,56 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.benchmark;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.strongswan.android.utils.SettingsWriter;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Serializes the configuration passed to the daemon when connecting, once with and once without
+ * setting the values (which also parses the keys).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class SettingsWriterBenchmark
+{
+	private SettingsWriter mWriter;
+
+	@Setup
+	public void setup()
+	{
+		mWriter = ReferenceData.settings();
+	}
+
+	@Benchmark
+	public String serialize()
+	{
+		return mWriter.serialize();
+	}
+
+	@Benchmark
+	public String setAndSerialize()
+	{
+		return ReferenceData.settings().serialize();
+	}
+}
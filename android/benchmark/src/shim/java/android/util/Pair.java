@@ -0,0 +1,35 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package android.util;
+
+/**
+ * JVM implementation of the framework's Pair, which the stubs in android.jar don't provide.
+ */
+public class Pair<F, S>
+{
+	public final F first;
+	public final S second;
+
+	public Pair(F first, S second)
+	{
+		this.first = first;
+		this.second = second;
+	}
+
+	public static <A, B> Pair<A, B> create(A a, B b)
+	{
+		return new Pair<A, B>(a, b);
+	}
+}
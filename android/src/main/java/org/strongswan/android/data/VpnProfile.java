@@ -20,6 +20,8 @@ package org.strongswan.android.data;
 
 import android.text.TextUtils;
 
+import org.strongswan.android.utils.Constants;
+
 import java.util.Arrays;
 import java.util.SortedSet;
 import java.util.TreeSet;
@@ -41,7 +43,7 @@ public class VpnProfile implements Cloneable
 	private String mName, mGateway, mUsername, mPassword, mCertificate, mUserCertificate;
 	private String mRemoteId, mLocalId, mExcludedSubnets, mIncludedSubnets, mSelectedApps;
 	private String mIkeProposal, mEspProposal, mDnsServers;
-	private Integer mMTU, mPort, mSplitTunneling, mNATKeepAlive, mFlags;
+	private Integer mMTU, mPort, mSplitTunneling, mNATKeepAlive, mFlags, mRouteBudget, mCaptureSize;
 	private SelectedAppsHandling mSelectedAppsHandling = SelectedAppsHandling.SELECTED_APPS_DISABLE;
 	private VpnType mVpnType;
 	private UUID mUUID;
@@ -319,6 +321,26 @@ public class VpnProfile implements Cloneable
 		this.mSplitTunneling = splitTunneling;
 	}
 
+	public Integer getRouteBudget()
+	{
+		return mRouteBudget;
+	}
+
+	public void setRouteBudget(Integer routeBudget)
+	{
+		this.mRouteBudget = routeBudget;
+	}
+
+	public Integer getCaptureSize()
+	{
+		return mCaptureSize;
+	}
+
+	public void setCaptureSize(Integer captureSize)
+	{
+		this.mCaptureSize = captureSize == null ? null : Math.min(captureSize, Constants.CAPTURE_SIZE_MAX);
+	}
+
 	public Integer getFlags()
 	{
 		return mFlags == null ? 0 : mFlags;
@@ -0,0 +1,55 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.logic;
+
+/**
+ * Entry points of the daemon used by {@link CharonVpnService}.
+ * <p>
+ * By default, these are the native methods provided by libandroidbridge.so, which call back into
+ * the service (e.g. {@link CharonVpnService#updateStatus(int)}) and the passed
+ * {@link CharonVpnService.BuilderAdapter}.  Other implementations allow running the service
+ * without the native library, e.g. to measure the overhead of the Java side.
+ */
+public interface CharonBridge
+{
+	/**
+	 * Initialize the daemon.
+	 *
+	 * @param service service that is called back
+	 * @param builder BuilderAdapter for this connection
+	 * @param logfile absolute path to the logfile
+	 * @param appdir  absolute path to the data directory of the app
+	 * @param byod    enable BYOD features
+	 * @param ipv6    enable IPv6 transport
+	 * @return TRUE if initialization was successful
+	 */
+	boolean initializeCharon(CharonVpnService service, CharonVpnService.BuilderAdapter builder, String logfile,
+							 String appdir, boolean byod, boolean ipv6);
+
+	/**
+	 * Deinitialize the daemon, which terminates any connection.
+	 *
+	 * @param service service that initialized the daemon
+	 */
+	void deinitializeCharon(CharonVpnService service);
+
+	/**
+	 * Initiate a connection, may only be called once after initializeCharon().
+	 *
+	 * @param service service that initialized the daemon
+	 * @param config  serialized configuration (see SettingsWriter)
+	 */
+	void initiate(CharonVpnService service, String config);
+}
@@ -23,9 +23,11 @@ import android.app.Notification;
 import android.app.NotificationChannel;
 import android.app.NotificationManager;
 import android.app.Service;
+import android.content.BroadcastReceiver;
 import android.content.ComponentName;
 import android.content.Context;
 import android.content.Intent;
+import android.content.IntentFilter;
 import android.content.ServiceConnection;
 import android.content.pm.PackageManager;
 import android.net.VpnService;
@@ -34,9 +36,13 @@ import android.os.Bundle;
 import android.os.Handler;
 import android.os.IBinder;
 import android.os.ParcelFileDescriptor;
+import android.os.SystemClock;
 import android.security.KeyChain;
 import android.security.KeyChainException;
+import android.system.ErrnoException;
+import android.system.Os;
 import android.system.OsConstants;
+import android.system.StructPollfd;
 import android.util.Log;
 
 import org.strongswan.android.data.VpnProfile;
@@ -50,27 +56,36 @@ import org.strongswan.android.logic.imc.RemediationInstruction;
 import org.strongswan.android.utils.Constants;
 import org.strongswan.android.utils.IPRange;
 import org.strongswan.android.utils.IPRangeSet;
+import org.strongswan.android.utils.IPRangeSetCache;
+import org.strongswan.android.utils.PcapngWriter;
 import org.strongswan.android.utils.SettingsWriter;
+import org.strongswan.android.utils.SubnetCover;
+import org.strongswan.android.utils.SubnetCursor;
 import org.strongswan.android.utils.Utils;
 
 import java.io.File;
+import java.io.FileDescriptor;
 import java.io.FileInputStream;
 import java.io.IOException;
-import java.net.Inet4Address;
 import java.net.Inet6Address;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.nio.ByteBuffer;
-import java.nio.channels.ClosedByInterruptException;
+import java.nio.channels.FileChannel;
 import java.security.PrivateKey;
 import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
 import java.util.SortedSet;
 import java.util.UUID;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
 
+import androidx.annotation.VisibleForTesting;
 import androidx.core.app.NotificationCompat;
 import androidx.core.content.ContextCompat;
 
@@ -82,22 +97,34 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
     public static final String DISCONNECT_ACTION = "org.strongswan.android.CharonVpnService.DISCONNECT";
     private static final String NOTIFICATION_CHANNEL = "org.strongswan.android.CharonVpnService.VPN_STATE_NOTIFICATION";
     public static final String LOG_FILE = "charon.log";
+    public static final String CAPTURE_FILE = "blocking.pcapng";
+    public static final String CA_INDEX_FILE = "ca-index";
     public static final String KEY_IS_RETRY = "retry";
     public static final int VPN_STATE_NOTIFICATION_ID = 1;
+    /* minimum length of the subnet lists for which the parsed subnets are cached */
+    private static final int SUBNETS_CACHE_THRESHOLD = 1024;
 
     private String mLogFile;
     private String mAppDir;
     //private VpnProfileDataSource mDataSource;
-    private Thread mConnectionHandler;
+    private ExecutorService mConnectionHandler;
     private VpnProfile mCurrentProfile;
     private volatile String mCurrentCertificateAlias;
     private volatile String mCurrentUserCertificateAlias;
+    private volatile UserCredentials mUserCredentials;
+    /* the following are protected by mRequestLock */
+    private final Object mRequestLock = new Object();
     private VpnProfile mNextProfile;
-    private volatile boolean mProfileUpdated;
+    private boolean mProfileUpdated;
+    private boolean mRequestScheduled;
+    private boolean mReady;
     private volatile boolean mTerminate;
     private volatile boolean mIsDisconnecting;
     private volatile boolean mShowNotification;
     private BuilderAdapter mBuilderAdapter = new BuilderAdapter();
+    /* replaces the native library if set before the service is created */
+    private static volatile CharonBridge sCharonBridge;
+    private CharonBridge mCharon;
     private Handler mHandler;
     private VpnStateService mService;
     private final Object mServiceLock = new Object();
@@ -114,9 +141,29 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             synchronized (mServiceLock) {
                 mService = ((VpnStateService.LocalBinder) service).getService();
             }
-            /* we are now ready to start the handler thread */
+            /* we are now ready to handle requests */
             mService.registerListener(CharonVpnService.this);
-            mConnectionHandler.start();
+            synchronized (mRequestLock) {
+                mReady = true;
+                scheduleRequest();
+            }
+        }
+    };
+
+    /* the prepared certificate encodings and the cached user credentials are only reloaded if
+     * the keystore changes.  the certificates are reloaded in the background right away, so the
+     * daemon doesn't have to do it (it uses the previous certificates while that's done) */
+    private final BroadcastReceiver mKeyStoreReceiver = new BroadcastReceiver() {
+        @Override
+        public void onReceive(Context context, Intent intent) {
+            TrustedCertificateManager.getInstance().reset();
+            mUserCredentials = null;
+            new Thread(new Runnable() {
+                @Override
+                public void run() {
+                    TrustedCertificateManager.getInstance().load();
+                }
+            }).start();
         }
     };
 
@@ -132,6 +179,19 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
     static final int STATE_CERTIFICATE_UNAVAILABLE = 7;
     static final int STATE_GENERIC_ERROR = 8;
 
+    /**
+     * lookup types for lookupTrustedCertificates(), the daemon has to use the same values
+     */
+    static final int CERTIFICATE_LOOKUP_SUBJECT = 0;
+    static final int CERTIFICATE_LOOKUP_KEY_ID = 1;
+    static final int CERTIFICATE_LOOKUP_FINGERPRINT = 2;
+
+    /**
+     * address families used by the bulk methods of BuilderAdapter, same values as AF_INET/AF_INET6
+     */
+    static final int FAMILY_IPV4 = 2;
+    static final int FAMILY_IPV6 = 10;
+
     @Override
     public int onStartCommand(Intent intent, int flags, int startId) {
         if (intent != null) {
@@ -152,6 +212,10 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
                     // Connection
                     profile.setGateway(bundle.getString("Server"));
                     if (bundle.containsKey("Port")) profile.setPort(bundle.getInt("Port"));
+                    if (bundle.containsKey("RouteBudget")) profile.setRouteBudget(bundle.getInt("RouteBudget"));
+                    if (bundle.containsKey("CaptureSize")) profile.setCaptureSize(bundle.getInt("CaptureSize"));
+                    profile.setIncludedSubnets(bundle.getString("IncludedSubnets"));
+                    profile.setExcludedSubnets(bundle.getString("ExcludedSubnets"));
                     profile.setUsername(bundle.getString("Username"));
                     profile.setPassword(bundle.getString("Password"));
                     profile.setLocalId(bundle.getString("LocalId"));
@@ -164,6 +228,9 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
                     retry = bundle.getBoolean(CharonVpnService.KEY_IS_RETRY, false);
                 }
             }
+            if (profile != null) {
+                ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_START_COMMAND);
+            }
             if (profile != null && !retry) {    /* delete the log file if this is not an automatic retry */
                 deleteFile(LOG_FILE);
             }
@@ -174,6 +241,8 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
 
     @Override
     public void onCreate() {
+        CharonBridge bridge = sCharonBridge;
+        mCharon = bridge != null ? bridge : new NativeCharonBridge();
         mLogFile = getFilesDir().getAbsolutePath() + File.separator + LOG_FILE;
         mAppDir = getFilesDir().getAbsolutePath();
 
@@ -181,11 +250,21 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
         mHandler = new Handler(getMainLooper());
 
         /* use a separate thread as main thread for charon */
-        mConnectionHandler = new Thread(this);
-        /* the thread is started when the service is bound */
+        mConnectionHandler = Executors.newSingleThreadExecutor();
+        /* requests are only handled once the service is bound */
         bindService(new Intent(this, VpnStateService.class),
                 mServiceConnection, Service.BIND_AUTO_CREATE);
 
+        /* avoids loading all CA certificates from the keystores after the process is started */
+        TrustedCertificateManager.getInstance().setIndexFile(new File(getFilesDir(), CA_INDEX_FILE));
+        IntentFilter filter = new IntentFilter(KeyChain.ACTION_STORAGE_CHANGED);
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.O) {
+            filter.addAction(KeyChain.ACTION_TRUST_STORE_CHANGED);
+            filter.addAction(KeyChain.ACTION_KEYCHAIN_CHANGED);
+            filter.addAction(KeyChain.ACTION_KEY_ACCESS_CHANGED);
+        }
+        registerReceiver(mKeyStoreReceiver, filter);
+
         createNotificationChannel();
     }
 
@@ -197,10 +276,16 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
 
     @Override
     public void onDestroy() {
-        mTerminate = true;
+        unregisterReceiver(mKeyStoreReceiver);
         setNextProfile(null);
+        /* handle the final request, scheduled tasks are still executed after this */
+        synchronized (mRequestLock) {
+            mTerminate = true;
+            scheduleRequest();
+        }
+        mConnectionHandler.shutdown();
         try {
-            mConnectionHandler.join();
+            mConnectionHandler.awaitTermination(Long.MAX_VALUE, TimeUnit.MILLISECONDS);
         } catch (InterruptedException e) {
             e.printStackTrace();
         }
@@ -211,100 +296,139 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
     }
 
     /**
-     * Set the profile that is to be initiated next. Notify the handler thread.
+     * Set the profile that is to be initiated next. The request is handled right away if no
+     * other request is currently handled, otherwise, requests received in the meantime are
+     * coalesced so only the latest one is acted on afterwards.
      *
      * @param profile the profile to initiate
      */
-    private void setNextProfile(VpnProfile profile) {
-        synchronized (this) {
+    @VisibleForTesting
+    void setNextProfile(VpnProfile profile) {
+        synchronized (mRequestLock) {
+            if (mTerminate) {
+                return;
+            }
             this.mNextProfile = profile;
             mProfileUpdated = true;
-            notifyAll();
+            scheduleRequest();
+        }
+    }
+
+    /**
+     * Schedule handling the latest request, if there is one and handling is not already
+     * scheduled.  As requests are handled sequentially, a run scheduled while another request is
+     * handled only starts once that's done, it then handles whatever request is the latest.
+     * Has to be called with mRequestLock held.
+     */
+    private void scheduleRequest() {
+        if (mReady && mProfileUpdated && !mRequestScheduled) {
+            mRequestScheduled = true;
+            mConnectionHandler.execute(this);
         }
     }
 
+    /**
+     * Check if a new request was received since the current one is handled.
+     */
+    private boolean isSuperseded() {
+        synchronized (mRequestLock) {
+            return mProfileUpdated;
+        }
+    }
+
+    /**
+     * Handle the latest request, runs on the connection handler thread.
+     */
     @Override
     public void run() {
-        while (true) {
-            synchronized (this) {
-                try {
-                    while (!mProfileUpdated) {
-                        wait();
-                    }
-
-                    mProfileUpdated = false;
-                    stopCurrentConnection();
-                    if (mNextProfile == null) {
-                        setState(State.DISABLED);
-                        if (mTerminate) {
-                            break;
-                        }
-                    } else {
-                        mCurrentProfile = mNextProfile;
-                        mNextProfile = null;
-
-                        /* store this in a separate (volatile) variable to avoid
-                         * a possible deadlock during deinitialization */
-                        mCurrentCertificateAlias = mCurrentProfile.getCertificateAlias();
-                        mCurrentUserCertificateAlias = mCurrentProfile.getUserCertificateAlias();
-
-                        startConnection(mCurrentProfile);
-                        mIsDisconnecting = false;
-
-                        SimpleFetcher.enable();
-                        addNotification();
-                        mBuilderAdapter.setProfile(mCurrentProfile);
-                        if (initializeCharon(mBuilderAdapter, mLogFile, mAppDir, mCurrentProfile.getVpnType().has(VpnTypeFeature.BYOD),
-                                (mCurrentProfile.getFlags() & VpnProfile.FLAGS_IPv6_TRANSPORT) != 0)) {
-                            Log.i(TAG, "charon started");
-
-                            if (mCurrentProfile.getVpnType().has(VpnTypeFeature.USER_PASS) &&
-                                    mCurrentProfile.getPassword() == null) {    /* this can happen if Always-on VPN is enabled with an incomplete profile */
-                                setError(ErrorState.PASSWORD_MISSING);
-                                continue;
-                            }
+        VpnProfile nextProfile;
+        synchronized (mRequestLock) {
+            mRequestScheduled = false;
+            if (!mProfileUpdated) {    /* already handled */
+                return;
+            }
+            mProfileUpdated = false;
+            nextProfile = mNextProfile;
+            mNextProfile = null;
+        }
+        synchronized (this) {
+            /* charon is restarted even if the flags passed to initializeCharon() don't change, as
+             * there is no way to terminate just the initiated connection (see initiate()) */
+            stopCurrentConnection(nextProfile);
+            if (nextProfile == null) {
+                setState(State.DISABLED);
+                return;
+            }
+            if (isSuperseded()) {    /* avoid initializing charon if a new request was received */
+                return;
+            }
+            mCurrentProfile = nextProfile;
+
+            /* store this in a separate (volatile) variable to avoid
+             * a possible deadlock during deinitialization */
+            mCurrentCertificateAlias = mCurrentProfile.getCertificateAlias();
+            mCurrentUserCertificateAlias = mCurrentProfile.getUserCertificateAlias();
+            mUserCredentials = null;
+
+            startConnection(mCurrentProfile);
+            mIsDisconnecting = false;
+
+            SimpleFetcher.enable();
+            addNotification();
+            mBuilderAdapter.setProfile(mCurrentProfile);
+            if (mCharon.initializeCharon(this, mBuilderAdapter, mLogFile, mAppDir, mCurrentProfile.getVpnType().has(VpnTypeFeature.BYOD),
+                    (mCurrentProfile.getFlags() & VpnProfile.FLAGS_IPv6_TRANSPORT) != 0)) {
+                Log.i(TAG, "charon started");
+                ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_INITIALIZE_CHARON);
+
+                if (mCurrentProfile.getVpnType().has(VpnTypeFeature.USER_PASS) &&
+                        mCurrentProfile.getPassword() == null) {    /* this can happen if Always-on VPN is enabled with an incomplete profile */
+                    setError(ErrorState.PASSWORD_MISSING);
+                    return;
+                }
 
-                            SettingsWriter writer = new SettingsWriter();
-                            writer.setValue("global.language", Locale.getDefault().getLanguage());
-                            writer.setValue("global.mtu", mCurrentProfile.getMTU());
-                            writer.setValue("global.nat_keepalive", mCurrentProfile.getNATKeepAlive());
-                            writer.setValue("global.rsa_pss", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_RSA_PSS) != 0);
-                            writer.setValue("global.crl", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_DISABLE_CRL) == 0);
-                            writer.setValue("global.ocsp", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_DISABLE_OCSP) == 0);
-                            writer.setValue("connection.type", mCurrentProfile.getVpnType().getIdentifier());
-                            writer.setValue("connection.server", mCurrentProfile.getGateway());
-                            writer.setValue("connection.port", mCurrentProfile.getPort());
-                            writer.setValue("connection.username", mCurrentProfile.getUsername());
-                            writer.setValue("connection.password", mCurrentProfile.getPassword());
-                            writer.setValue("connection.local_id", mCurrentProfile.getLocalId());
-                            writer.setValue("connection.remote_id", mCurrentProfile.getRemoteId());
-                            writer.setValue("connection.certreq", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_SUPPRESS_CERT_REQS) == 0);
-                            writer.setValue("connection.strict_revocation", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_STRICT_REVOCATION) != 0);
-                            writer.setValue("connection.ike_proposal", mCurrentProfile.getIkeProposal());
-                            writer.setValue("connection.esp_proposal", mCurrentProfile.getEspProposal());
-                            initiate(writer.serialize());
-                        } else {
-                            Log.e(TAG, "failed to start charon");
-                            setError(ErrorState.GENERIC_ERROR);
-                            setState(State.DISABLED);
-                            mCurrentProfile = null;
-                        }
-                    }
-                } catch (InterruptedException ex) {
-                    stopCurrentConnection();
-                    setState(State.DISABLED);
+                SettingsWriter writer = new SettingsWriter();
+                writer.setValue("global.language", Locale.getDefault().getLanguage());
+                writer.setValue("global.mtu", mCurrentProfile.getMTU());
+                writer.setValue("global.nat_keepalive", mCurrentProfile.getNATKeepAlive());
+                writer.setValue("global.rsa_pss", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_RSA_PSS) != 0);
+                writer.setValue("global.crl", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_DISABLE_CRL) == 0);
+                writer.setValue("global.ocsp", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_DISABLE_OCSP) == 0);
+                writer.setValue("connection.type", mCurrentProfile.getVpnType().getIdentifier());
+                writer.setValue("connection.server", mCurrentProfile.getGateway());
+                writer.setValue("connection.port", mCurrentProfile.getPort());
+                writer.setValue("connection.username", mCurrentProfile.getUsername());
+                writer.setValue("connection.password", mCurrentProfile.getPassword());
+                writer.setValue("connection.local_id", mCurrentProfile.getLocalId());
+                writer.setValue("connection.remote_id", mCurrentProfile.getRemoteId());
+                writer.setValue("connection.certreq", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_SUPPRESS_CERT_REQS) == 0);
+                writer.setValue("connection.strict_revocation", (mCurrentProfile.getFlags() & VpnProfile.FLAGS_STRICT_REVOCATION) != 0);
+                writer.setValue("connection.ike_proposal", mCurrentProfile.getIkeProposal());
+                writer.setValue("connection.esp_proposal", mCurrentProfile.getEspProposal());
+                if (isSuperseded()) {    /* don't bother initiating, this is torn down right away */
+                    Log.i(TAG, "connection superseded by a new request");
+                    return;
                 }
+                mCharon.initiate(this, writer.serialize());
+                ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_INITIATE);
+            } else {
+                Log.e(TAG, "failed to start charon");
+                setError(ErrorState.GENERIC_ERROR);
+                setState(State.DISABLED);
+                mCurrentProfile = null;
             }
         }
     }
 
     /**
      * Stop any existing connection by deinitializing charon.
+     *
+     * @param nextProfile the profile that is initiated next, if any
      */
-    private void stopCurrentConnection() {
+    private void stopCurrentConnection(VpnProfile nextProfile) {
         synchronized (this) {
-            if (mNextProfile != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
-                mBuilderAdapter.setProfile(mNextProfile);
+            if (nextProfile != null && Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
+                mBuilderAdapter.setProfile(nextProfile);
                 mBuilderAdapter.establishBlocking();
             }
 
@@ -312,13 +436,16 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
                 setState(State.DISCONNECTING);
                 mIsDisconnecting = true;
                 SimpleFetcher.disable();
-                deinitializeCharon();
+                mCharon.deinitializeCharon(this);
+                mBuilderAdapter.releaseActiveFd();
                 Log.i(TAG, "charon stopped");
                 mCurrentProfile = null;
-                if (mNextProfile == null) {    /* only do this if we are not connecting to another profile */
-                    removeNotification();
-                    mBuilderAdapter.closeBlocking();
-                }
+            }
+            if (nextProfile == null) {    /* only do this if we are not connecting to another profile,
+             * a previous request might have been superseded after blocking */
+                removeNotification();
+                mBuilderAdapter.closeBlocking();
+                mBuilderAdapter.closeCapture();
             }
         }
     }
@@ -521,6 +648,8 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
      * @param error error state
      */
     private void setErrorDisconnect(ErrorState error) {
+        /* the connection failed, don't keep the TUN device alive in case the daemon closes it */
+        mBuilderAdapter.releaseActiveFd();
         synchronized (mServiceLock) {
             if (mService != null) {
                 if (!mIsDisconnecting) {
@@ -544,6 +673,7 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
                 }
                 break;
             case STATE_CHILD_SA_UP:
+                ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_CONNECTED);
                 setState(State.CONNECTED);
                 break;
             case STATE_AUTH_ERROR:
@@ -606,26 +736,88 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
      * @return a list of DER encoded CA certificates
      */
     private byte[][] getTrustedCertificates() {
-        ArrayList<byte[]> certs = new ArrayList<byte[]>();
         TrustedCertificateManager certman = TrustedCertificateManager.getInstance().load();
-        try {
-            String alias = this.mCurrentCertificateAlias;
-            if (alias != null) {
-                X509Certificate cert = certman.getCACertificateFromAlias(alias);
-                if (cert == null) {
-                    return null;
-                }
-                certs.add(cert.getEncoded());
-            } else {
-                for (X509Certificate cert : certman.getAllCACertificates().values()) {
-                    certs.add(cert.getEncoded());
+        String alias = this.mCurrentCertificateAlias;
+        if (alias != null) {
+            byte[] encoding = certman.getCACertificateEncodingFromAlias(alias);
+            if (encoding == null) {
+                return null;
+            }
+            return new byte[][]{encoding};
+        }
+        /* the encodings are shared, so this doesn't copy or encode anything */
+        return certman.getAllCACertificateEncodings();
+    }
+
+    /**
+     * Function called via JNI to look up specific CA certificates, e.g. the issuer of a
+     * certificate while building a trust chain, so the daemon doesn't have to load all of them.
+     *
+     * @param type one of the CERTIFICATE_LOOKUP_* constants
+     * @param id   DER encoded subject DN, subject key identifier, or SHA-256 fingerprint
+     * @return a list of DER encoded matching CA certificates (might be empty)
+     */
+    private byte[][] lookupTrustedCertificates(int type, byte[] id) {
+        TrustedCertificateManager certman = TrustedCertificateManager.getInstance().load();
+        byte[][] encodings;
+        switch (type) {
+            case CERTIFICATE_LOOKUP_SUBJECT:
+                encodings = certman.getCACertificateEncodingsBySubject(id);
+                break;
+            case CERTIFICATE_LOOKUP_KEY_ID:
+                encodings = certman.getCACertificateEncodingsByKeyId(id);
+                break;
+            case CERTIFICATE_LOOKUP_FINGERPRINT:
+                byte[] encoding = certman.getCACertificateEncodingByFingerprint(id);
+                encodings = encoding != null ? new byte[][]{encoding} : new byte[0][];
+                break;
+            default:
+                return new byte[0][];
+        }
+        String alias = this.mCurrentCertificateAlias;
+        if (alias != null) {    /* only the selected CA certificate is trusted */
+            byte[] selected = certman.getCACertificateEncodingFromAlias(alias);
+            for (byte[] encoding : encodings) {
+                if (Arrays.equals(encoding, selected)) {
+                    return new byte[][]{encoding};
                 }
             }
-        } catch (CertificateEncodingException e) {
-            e.printStackTrace();
+            return new byte[0][];
+        }
+        return encodings;
+    }
+
+    /**
+     * Credentials of a user certificate, which are fetched from KeyChain when first needed, so
+     * this is not done again e.g. during reauthentication.  A new object is created if the
+     * profile or the keystore changes, so results of concurrent calls don't leak into it.
+     */
+    private static class UserCredentials {
+        final String mAlias;
+        volatile byte[][] mChain;
+        volatile PrivateKey mKey;
+
+        UserCredentials(String alias) {
+            mAlias = alias;
+        }
+    }
+
+    /**
+     * Get the cached credentials of the current user certificate.
+     *
+     * @return credentials, null if no user certificate is used
+     */
+    private UserCredentials getUserCredentials() {
+        String alias = mCurrentUserCertificateAlias;
+        if (alias == null) {
             return null;
         }
-        return certs.toArray(new byte[certs.size()][]);
+        UserCredentials credentials = mUserCredentials;
+        if (credentials == null || !alias.equals(credentials.mAlias)) {
+            credentials = new UserCredentials(alias);
+            mUserCredentials = credentials;
+        }
+        return credentials;
     }
 
     /**
@@ -641,15 +833,23 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
      * @throws CertificateEncodingException
      */
     private byte[][] getUserCertificate() throws KeyChainException, InterruptedException, CertificateEncodingException {
+        UserCredentials credentials = getUserCredentials();
+        if (credentials == null) {
+            return null;
+        }
+        if (credentials.mChain != null) {
+            return credentials.mChain;
+        }
         ArrayList<byte[]> encodings = new ArrayList<byte[]>();
-        X509Certificate[] chain = KeyChain.getCertificateChain(getApplicationContext(), mCurrentUserCertificateAlias);
+        X509Certificate[] chain = KeyChain.getCertificateChain(getApplicationContext(), credentials.mAlias);
         if (chain == null || chain.length == 0) {
             return null;
         }
         for (X509Certificate cert : chain) {
             encodings.add(cert.getEncoded());
         }
-        return encodings.toArray(new byte[encodings.size()][]);
+        credentials.mChain = encodings.toArray(new byte[encodings.size()][]);
+        return credentials.mChain;
     }
 
     /**
@@ -663,7 +863,14 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
      * @throws KeyChainException
      */
     private PrivateKey getUserKey() throws KeyChainException, InterruptedException {
-        return KeyChain.getPrivateKey(getApplicationContext(), mCurrentUserCertificateAlias);
+        UserCredentials credentials = getUserCredentials();
+        if (credentials == null) {
+            return null;
+        }
+        if (credentials.mKey == null) {
+            credentials.mKey = KeyChain.getPrivateKey(getApplicationContext(), credentials.mAlias);
+        }
+        return credentials.mKey;
     }
 
     /**
@@ -685,9 +892,52 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
 
     /**
      * Initiate VPN, provided by libandroidbridge.so
+     * <p>
+     * May only be called once after initializeCharon(), the connection is only terminated
+     * when calling deinitializeCharon().
      */
     public native void initiate(String config);
 
+    /**
+     * Use the given implementation instead of the native library for services created after
+     * this call.
+     *
+     * @param bridge replacement for the native methods, null to use them again
+     */
+    @VisibleForTesting
+    static void setCharonBridge(CharonBridge bridge) {
+        sCharonBridge = bridge;
+    }
+
+    /**
+     * Default implementation that calls the native methods above.
+     */
+    private static class NativeCharonBridge implements CharonBridge {
+        @Override
+        public boolean initializeCharon(CharonVpnService service, BuilderAdapter builder, String logfile,
+                                        String appdir, boolean byod, boolean ipv6) {
+            return service.initializeCharon(builder, logfile, appdir, byod, ipv6);
+        }
+
+        @Override
+        public void deinitializeCharon(CharonVpnService service) {
+            service.deinitializeCharon();
+        }
+
+        @Override
+        public void initiate(CharonVpnService service, String config) {
+            service.initiate(config);
+        }
+    }
+
+    /**
+     * Create a new builder for a TUN device.
+     */
+    @VisibleForTesting
+    VpnService.Builder createVpnBuilder() {
+        return new CharonVpnService.Builder();
+    }
+
     /**
      * Adapter for VpnService.Builder which is used to access it safely via JNI.
      * There is a corresponding C object to access it from native code.
@@ -697,16 +947,27 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
         private VpnService.Builder mBuilder;
         private BuilderCache mCache;
         private BuilderCache mEstablishedCache;
+        /* duplicate of the file descriptor of the TUN device last created via establish(),
+         * used to hand it out again if the configuration doesn't change.  the daemon only closes
+         * its descriptor right before it calls one of the establish methods (which replace or
+         * release this one) and when it's deinitialized or the connection failed (after which
+         * releaseActiveFd() is called), so this never keeps the device alive on its own */
+        private ParcelFileDescriptor mActiveFd;
         private PacketDropper mDropper = new PacketDropper();
+        /* optional capture of packets sent to the blocking TUN device, kept open as it's used
+         * as ring buffer across multiple blocking periods */
+        private PcapngWriter mCapture;
+        private int mCaptureSize;
 
         public synchronized void setProfile(VpnProfile profile) {
+            releaseActiveFd();
             mProfile = profile;
             mBuilder = createBuilder(mProfile.getName());
-            mCache = new BuilderCache(mProfile);
+            mCache = new BuilderCache(mProfile, null);
         }
 
         private VpnService.Builder createBuilder(String name) {
-            VpnService.Builder builder = new CharonVpnService.Builder();
+            VpnService.Builder builder = createVpnBuilder();
             builder.setSession(name);
 
             /* mark all VPN connections as unmetered (default changed for Android 10) */
@@ -717,6 +978,7 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
         }
 
         public synchronized boolean addAddress(String address, int prefixLength) {
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_FIRST_CALLBACK);
             try {
                 mCache.addAddress(address, prefixLength);
             } catch (IllegalArgumentException ex) {
@@ -726,6 +988,7 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
         }
 
         public synchronized boolean addDnsServer(String address) {
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_FIRST_CALLBACK);
             try {
                 mCache.addDnsServer(address);
             } catch (IllegalArgumentException ex) {
@@ -735,6 +998,7 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
         }
 
         public synchronized boolean addRoute(String address, int prefixLength) {
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_FIRST_CALLBACK);
             try {
                 mCache.addRoute(address, prefixLength);
             } catch (IllegalArgumentException ex) {
@@ -743,9 +1007,65 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             return true;
         }
 
+        /**
+         * Add multiple addresses at once, which avoids a JNI call and parsing a string for each
+         * of them.
+         *
+         * @param families      FAMILY_IPV4 or FAMILY_IPV6 for each address
+         * @param addresses     addresses in network order (4 or 16 bytes each), back to back
+         * @param prefixLengths prefix length of each address
+         * @return false if any of the addresses is invalid, none are added in that case
+         */
+        public synchronized boolean addAddresses(int[] families, byte[] addresses, int[] prefixLengths) {
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_FIRST_CALLBACK);
+            try {
+                mCache.addAddresses(unpackRanges(families, addresses, prefixLengths));
+            } catch (IllegalArgumentException ex) {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Add multiple DNS servers at once (see addAddresses()).
+         *
+         * @param families  FAMILY_IPV4 or FAMILY_IPV6 for each server
+         * @param addresses addresses in network order (4 or 16 bytes each), back to back
+         * @return false if any of the addresses is invalid, none are added in that case
+         */
+        public synchronized boolean addDnsServers(int[] families, byte[] addresses) {
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_FIRST_CALLBACK);
+            try {
+                mCache.addDnsServers(unpackAddresses(families, addresses));
+            } catch (IllegalArgumentException ex) {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Add multiple routes at once (see addAddresses()).
+         *
+         * @param families      FAMILY_IPV4 or FAMILY_IPV6 for each route
+         * @param addresses     network addresses in network order (4 or 16 bytes each), back to back
+         * @param prefixLengths prefix length of each route
+         * @return false if any of the routes is invalid, none are added in that case
+         */
+        public synchronized boolean addRoutes(int[] families, byte[] addresses, int[] prefixLengths) {
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_FIRST_CALLBACK);
+            try {
+                mCache.addRoutes(unpackRanges(families, addresses, prefixLengths));
+            } catch (IllegalArgumentException ex) {
+                return false;
+            }
+            return true;
+        }
+
         public synchronized boolean addSearchDomain(String domain) {
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_FIRST_CALLBACK);
             try {
                 mBuilder.addSearchDomain(domain);
+                mCache.addSearchDomain(domain);
             } catch (IllegalArgumentException ex) {
                 return false;
             }
@@ -753,6 +1073,7 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
         }
 
         public synchronized boolean setMtu(int mtu) {
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_FIRST_CALLBACK);
             try {
                 mCache.setMtu(mtu);
             } catch (IllegalArgumentException ex) {
@@ -780,17 +1101,59 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
              * builder anymore, but we might need another when reestablishing */
             mBuilder = createBuilder(mProfile.getName());
             mEstablishedCache = mCache;
-            mCache = new BuilderCache(mProfile);
+            /* reuse what was computed for this configuration when reestablishing */
+            mCache = new BuilderCache(mProfile, mEstablishedCache);
             return fd;
         }
 
         public synchronized int establish() {
+            if (mActiveFd != null && mEstablishedCache != null &&
+                    mCache.isEquivalent(mEstablishedCache)) {
+                /* nothing changed, keep using the existing TUN device instead of replacing it,
+                 * the daemon closes the descriptor it had before so we hand out a duplicate */
+                try {
+                    ParcelFileDescriptor fd = mActiveFd.dup();
+                    mBuilder = createBuilder(mProfile.getName());
+                    mEstablishedCache = mCache;
+                    mCache = new BuilderCache(mProfile, mEstablishedCache);
+                    ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_ESTABLISH);
+                    return fd.detachFd();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+            }
+            releaseActiveFd();
             ParcelFileDescriptor fd = establishIntern();
-            return fd != null ? fd.detachFd() : -1;
+            if (fd == null) {
+                return -1;
+            }
+            try {
+                mActiveFd = fd.dup();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+            ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_ESTABLISH);
+            return fd.detachFd();
+        }
+
+        /**
+         * Release our reference to the TUN device created via establish(), so it's destroyed
+         * once the daemon closes its own descriptor.
+         */
+        public synchronized void releaseActiveFd() {
+            if (mActiveFd != null) {
+                try {
+                    mActiveFd.close();
+                } catch (IOException ex) {
+                    ex.printStackTrace();
+                }
+                mActiveFd = null;
+            }
         }
 
         @TargetApi(Build.VERSION_CODES.LOLLIPOP)
         public synchronized void establishBlocking() {
+            releaseActiveFd();
             /* just choose some arbitrary values to block all traffic (except for what's configured in the profile) */
             mCache.addAddress("172.16.252.1", 32);
             mCache.addAddress("fd00::fd02:1", 128);
@@ -811,12 +1174,46 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             mDropper.stop();
         }
 
+        /**
+         * Close the capture file, which is otherwise kept open across blocking periods.
+         */
+        public synchronized void closeCapture() {
+            if (mCapture != null) {
+                mCapture.close();
+                mCapture = null;
+            }
+        }
+
+        /**
+         * Get the writer to capture packets sent to the blocking TUN device, if configured in
+         * the current profile.
+         */
+        private PcapngWriter openCapture() {
+            Integer size = mProfile.getCaptureSize();
+            int captureSize = size != null ? size : 0;
+            if (mCapture != null && mCaptureSize != captureSize) {
+                mCapture.close();
+                mCapture = null;
+            }
+            if (mCapture == null && captureSize > 0) {
+                try {
+                    mCapture = new PcapngWriter(new File(getFilesDir(), CAPTURE_FILE), captureSize);
+                    mCaptureSize = captureSize;
+                } catch (IOException | IllegalArgumentException e) {
+                    e.printStackTrace();
+                }
+            }
+            return mCapture;
+        }
+
         public synchronized int establishNoDns() {
             ParcelFileDescriptor fd;
 
             if (mEstablishedCache == null) {
                 return -1;
             }
+            /* the configuration changes as there are no search domains */
+            releaseActiveFd();
             try {
                 Builder builder = createBuilder(mProfile.getName());
                 mEstablishedCache.applyData(builder);
@@ -831,12 +1228,37 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             return fd.detachFd();
         }
 
+        /**
+         * Reads and discards all packets sent to the blocking TUN device.  The thread waits for
+         * packets via poll(), which also watches a pipe that is used to wake it up when stopping.
+         * <p>
+         * The packets are not buffered to send them once the tunnel is up: writing them to the
+         * new TUN device would deliver them to the local stack as received traffic, and the daemon
+         * provides no way to inject outbound packets.  So applications have to retransmit them.
+         */
+        @TargetApi(Build.VERSION_CODES.LOLLIPOP)
         private class PacketDropper implements Runnable {
             private ParcelFileDescriptor mFd;
             private Thread mThread;
+            private FileDescriptor mWakeRead, mWakeWrite;
+            private int mMtu;
+            private DropStatistics mStats;
+            private PcapngWriter mWriter;
 
             public void start(ParcelFileDescriptor fd) {
                 mFd = fd;
+                mStats = new DropStatistics();
+                mWriter = openCapture();
+                mMtu = mEstablishedCache.mMtu;
+                try {
+                    FileDescriptor[] pipe = Os.pipe();
+                    mWakeRead = pipe[0];
+                    mWakeWrite = pipe[1];
+                } catch (ErrnoException e) {
+                    /* without a reader, the kernel drops the packets once the queue is full */
+                    e.printStackTrace();
+                    return;
+                }
                 mThread = new Thread(this);
                 mThread.start();
             }
@@ -844,49 +1266,94 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             public void stop() {
                 if (mFd != null) {
                     try {
-                        mThread.interrupt();
-                        mThread.join();
+                        if (mThread != null) {
+                            Os.write(mWakeWrite, new byte[]{0}, 0, 1);
+                            mThread.join();
+                            mThread = null;
+                        }
+                        Log.i(TAG, "closing blocking TUN device, dropped " + mStats);
+                        synchronized (mServiceLock) {
+                            if (mService != null) {
+                                mService.setDropStatistics(mStats);
+                            }
+                        }
+                        if (mWriter != null) {
+                            mWriter.flush();
+                        }
                         mFd.close();
-                    } catch (InterruptedException e) {
+                    } catch (ErrnoException | InterruptedException e) {
                         e.printStackTrace();
                     } catch (IOException e) {
                         e.printStackTrace();
                     }
+                    closeWakePipe();
                     mFd = null;
+                    mWriter = null;
+                }
+            }
+
+            private void closeWakePipe() {
+                for (FileDescriptor fd : new FileDescriptor[]{mWakeRead, mWakeWrite}) {
+                    if (fd != null) {
+                        try {
+                            Os.close(fd);
+                        } catch (ErrnoException e) {
+                            e.printStackTrace();
+                        }
+                    }
                 }
+                mWakeRead = mWakeWrite = null;
             }
 
             @Override
             public synchronized void run() {
+                StructPollfd tun = new StructPollfd();
+                tun.fd = mFd.getFileDescriptor();
+                tun.events = (short) OsConstants.POLLIN;
+                StructPollfd wake = new StructPollfd();
+                wake.fd = mWakeRead;
+                wake.events = (short) OsConstants.POLLIN;
+                StructPollfd[] fds = new StructPollfd[]{tun, wake}, tunOnly = new StructPollfd[]{tun};
+                int errors = OsConstants.POLLERR | OsConstants.POLLHUP | OsConstants.POLLNVAL;
+
+                FileChannel channel = new FileInputStream(mFd.getFileDescriptor()).getChannel();
+                ByteBuffer packet = ByteBuffer.allocateDirect(mMtu);
                 try {
-                    FileInputStream plain = new FileInputStream(mFd.getFileDescriptor());
-                    ByteBuffer packet = ByteBuffer.allocate(mCache.mMtu);
                     while (true) {
-                        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.N) {    /* just read and ignore all data, regular read() is not interruptible */
-                            int len = plain.getChannel().read(packet);
-                            packet.clear();
-                            if (len < 0) {
-                                break;
+                        try {
+                            Os.poll(fds, -1);
+                        } catch (ErrnoException e) {
+                            if (e.errno == OsConstants.EINTR) {
+                                continue;
                             }
-                        } else {    /* this is rather ugly but on older platforms not even the NIO version of read() is interruptible */
-                            boolean wait = true;
-                            if (plain.available() > 0) {
-                                int len = plain.read(packet.array());
-                                packet.clear();
-                                if (len < 0 || Thread.interrupted()) {
-                                    break;
-                                }
-                                /* check again right away, there may be another packet */
-                                wait = false;
+                            throw e;
+                        }
+                        if (wake.revents != 0 || (tun.revents & errors) != 0) {
+                            break;
+                        }
+                        if ((tun.revents & OsConstants.POLLIN) == 0) {
+                            continue;
+                        }
+                        /* just read and ignore the data, as long as there are packets, so this
+                         * won't block */
+                        int burst = 0;
+                        do {
+                            int len = channel.read(packet);
+                            if (len < 0) {
+                                return;
                             }
-                            if (wait) {
-                                Thread.sleep(250);
+                            packet.flip();
+                            long now = SystemClock.elapsedRealtime();
+                            mStats.record(packet, now);
+                            if (mWriter != null) {
+                                mWriter.write(packet);
                             }
-                        }
+                            packet.clear();
+                            burst++;
+                        } while (Os.poll(tunOnly, 0) > 0 && (tun.revents & OsConstants.POLLIN) != 0);
+                        mStats.recordBurst(burst);
                     }
-                } catch (ClosedByInterruptException | InterruptedException e) {
-                    /* regular interruption */
-                } catch (IOException e) {
+                } catch (ErrnoException | IOException e) {
                     e.printStackTrace();
                 }
             }
@@ -901,26 +1368,52 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
         private final List<IPRange> mAddresses = new ArrayList<>();
         private final List<IPRange> mRoutesIPv4 = new ArrayList<>();
         private final List<IPRange> mRoutesIPv6 = new ArrayList<>();
-        private final IPRangeSet mIncludedSubnetsv4 = new IPRangeSet();
-        private final IPRangeSet mIncludedSubnetsv6 = new IPRangeSet();
+        private final IPRangeSet mIncludedSubnetsv4;
+        private final IPRangeSet mIncludedSubnetsv6;
         private final IPRangeSet mExcludedSubnets;
+        /* included subnets minus the excluded subnets */
+        private final IPRangeSet mIncludedRoutesv4;
+        private final IPRangeSet mIncludedRoutesv6;
+        private final String mSubnetsKey;
+        /* routes computed by applyData(), reused as long as their inputs don't change */
+        private Routes mAppliedRoutesIPv4, mAppliedRoutesIPv6;
         private final int mSplitTunneling;
+        private final int mRouteBudget;
         private final SelectedAppsHandling mAppHandling;
         private final SortedSet<String> mSelectedApps;
         private final List<InetAddress> mDnsServers = new ArrayList<>();
+        private final List<String> mSearchDomains = new ArrayList<>();
         private int mMtu;
         private boolean mIPv4Seen, mIPv6Seen, mDnsServersConfigured;
 
-        public BuilderCache(VpnProfile profile) {
-            IPRangeSet included = IPRangeSet.fromString(profile.getIncludedSubnets());
-            for (IPRange range : included) {
-                if (range.getFrom() instanceof Inet4Address) {
-                    mIncludedSubnetsv4.add(range);
-                } else if (range.getFrom() instanceof Inet6Address) {
-                    mIncludedSubnetsv6.add(range);
-                }
+        /**
+         * Create a cache for the given profile.
+         *
+         * @param profile  profile to use
+         * @param previous cache used before for the same profile, its subnets and computed
+         *                 routes are reused if they are still valid (may be null)
+         */
+        public BuilderCache(VpnProfile profile, BuilderCache previous) {
+            Integer routeBudget = profile.getRouteBudget();
+            mRouteBudget = routeBudget != null ? routeBudget : 0;
+            mSubnetsKey = profile.getIncludedSubnets() + "\n" + profile.getExcludedSubnets();
+            if (previous != null && previous.mSubnetsKey.equals(mSubnetsKey) &&
+                    previous.mRouteBudget == mRouteBudget) {
+                mIncludedSubnetsv4 = previous.mIncludedSubnetsv4;
+                mIncludedSubnetsv6 = previous.mIncludedSubnetsv6;
+                mExcludedSubnets = previous.mExcludedSubnets;
+                mIncludedRoutesv4 = previous.mIncludedRoutesv4;
+                mIncludedRoutesv6 = previous.mIncludedRoutesv6;
+                mAppliedRoutesIPv4 = previous.mAppliedRoutesIPv4;
+                mAppliedRoutesIPv6 = previous.mAppliedRoutesIPv6;
+            } else {
+                IPRangeSet[] subnets = loadSubnets(profile.getIncludedSubnets(), profile.getExcludedSubnets());
+                mIncludedSubnetsv4 = subnets[0];
+                mIncludedSubnetsv6 = subnets[1];
+                mExcludedSubnets = subnets[2];
+                mIncludedRoutesv4 = subnets[3];
+                mIncludedRoutesv6 = subnets[4];
             }
-            mExcludedSubnets = IPRangeSet.fromString(profile.getExcludedSubnets());
             Integer splitTunneling = profile.getSplitTunneling();
             mSplitTunneling = splitTunneling != null ? splitTunneling : 0;
             SelectedAppsHandling appHandling = profile.getSelectedAppsHandling();
@@ -943,8 +1436,9 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             if (profile.getDnsServers() != null) {
                 for (String server : profile.getDnsServers().split("\\s+")) {
                     try {
-                        mDnsServers.add(Utils.parseInetAddress(server));
-                        recordAddressFamily(server);
+                        InetAddress addr = Utils.parseInetAddress(server);
+                        mDnsServers.add(addr);
+                        recordAddressFamily(addr instanceof Inet6Address);
                         mDnsServersConfigured = true;
                     } catch (UnknownHostException e) {
                         e.printStackTrace();
@@ -957,10 +1451,61 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             mMtu = mtu == null ? Constants.MTU_MAX : mtu;
         }
 
+        /**
+         * Parse the configured subnets and precompute the routes derived from them. As this may
+         * take a while for long lists, the results are cached in a file. Invalid lists are logged
+         * and ignored.
+         *
+         * @return included IPv4/IPv6, excluded subnets, and included IPv4/IPv6 minus excluded subnets
+         */
+        private IPRangeSet[] loadSubnets(String includedSubnets, String excludedSubnets) {
+            IPRangeSetCache cache = null;
+            /* decoding a cached entry only beats parsing for longer lists */
+            if (mSubnetsKey.length() >= SUBNETS_CACHE_THRESHOLD) {
+                cache = new IPRangeSetCache(getFilesDir());
+                IPRangeSet[] subnets = cache.get(mSubnetsKey, 5);
+                if (subnets != null) {
+                    return subnets;
+                }
+            }
+            IPRangeSet includedv4 = new IPRangeSet(), includedv6 = new IPRangeSet();
+            IPRangeSet included = IPRangeSet.fromString(includedSubnets);
+            if (included == null) {
+                Log.e(TAG, "ignoring invalid included subnets");
+                included = new IPRangeSet();
+                cache = null;
+            }
+            for (IPRange range : included) {
+                if (range.isIPv6()) {
+                    includedv6.add(range);
+                } else {
+                    includedv4.add(range);
+                }
+            }
+            IPRangeSet excluded = IPRangeSet.fromString(excludedSubnets);
+            if (excluded == null) {
+                Log.e(TAG, "ignoring invalid excluded subnets");
+                excluded = new IPRangeSet();
+                cache = null;
+            }
+            IPRangeSet routesv4 = new IPRangeSet(), routesv6 = new IPRangeSet();
+            routesv4.add(includedv4);
+            routesv4.remove(excluded);
+            routesv6.add(includedv6);
+            routesv6.remove(excluded);
+
+            IPRangeSet[] subnets = new IPRangeSet[]{includedv4, includedv6, excluded, routesv4, routesv6};
+            if (cache != null) {
+                cache.put(mSubnetsKey, subnets);
+            }
+            return subnets;
+        }
+
         public void addAddress(String address, int prefixLength) {
             try {
-                mAddresses.add(new IPRange(address, prefixLength));
-                recordAddressFamily(address);
+                IPRange range = new IPRange(address, prefixLength);
+                mAddresses.add(range);
+                recordAddressFamily(range.isIPv6());
             } catch (UnknownHostException ex) {
                 ex.printStackTrace();
             }
@@ -973,8 +1518,9 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             }
 
             try {
-                mDnsServers.add(Utils.parseInetAddress(address));
-                recordAddressFamily(address);
+                InetAddress addr = Utils.parseInetAddress(address);
+                mDnsServers.add(addr);
+                recordAddressFamily(addr instanceof Inet6Address);
             } catch (UnknownHostException e) {
                 e.printStackTrace();
             }
@@ -982,29 +1528,100 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
 
         public void addRoute(String address, int prefixLength) {
             try {
-                if (isIPv6(address)) {
-                    mRoutesIPv6.add(new IPRange(address, prefixLength));
+                IPRange range = new IPRange(address, prefixLength);
+                if (range.isIPv6()) {
+                    mRoutesIPv6.add(range);
                 } else {
-                    mRoutesIPv4.add(new IPRange(address, prefixLength));
+                    mRoutesIPv4.add(range);
                 }
             } catch (UnknownHostException ex) {
                 ex.printStackTrace();
             }
         }
 
-        public void setMtu(int mtu) {
-            mMtu = mtu;
+        public void addAddresses(List<IPRange> addresses) {
+            for (IPRange range : addresses) {
+                mAddresses.add(range);
+                recordAddressFamily(range.isIPv6());
+            }
         }
 
-        public void recordAddressFamily(String address) {
-            try {
-                if (isIPv6(address)) {
-                    mIPv6Seen = true;
+        public void addDnsServers(List<InetAddress> servers) {
+            /* ignore received DNS servers if any were configured */
+            if (mDnsServersConfigured) {
+                return;
+            }
+
+            for (InetAddress addr : servers) {
+                mDnsServers.add(addr);
+                recordAddressFamily(addr instanceof Inet6Address);
+            }
+        }
+
+        public void addRoutes(List<IPRange> routes) {
+            for (IPRange range : routes) {
+                if (range.isIPv6()) {
+                    mRoutesIPv6.add(range);
                 } else {
-                    mIPv4Seen = true;
+                    mRoutesIPv4.add(range);
                 }
-            } catch (UnknownHostException ex) {
-                ex.printStackTrace();
+            }
+        }
+
+        public void addSearchDomain(String domain) {
+            /* only recorded, these are directly added to the builder */
+            mSearchDomains.add(domain);
+        }
+
+        public void setMtu(int mtu) {
+            mMtu = mtu;
+        }
+
+        public void recordAddressFamily(boolean ipv6) {
+            if (ipv6) {
+                mIPv6Seen = true;
+            } else {
+                mIPv4Seen = true;
+            }
+        }
+
+        /**
+         * Check if applying this cache configures the TUN device the same way as applying the
+         * given cache does.
+         */
+        public boolean isEquivalent(BuilderCache other) {
+            if (mMtu != other.mMtu || mSplitTunneling != other.mSplitTunneling ||
+                    mIPv4Seen != other.mIPv4Seen || mIPv6Seen != other.mIPv6Seen ||
+                    mAppHandling != other.mAppHandling || !mSelectedApps.equals(other.mSelectedApps) ||
+                    !mAddresses.equals(other.mAddresses) || !mDnsServers.equals(other.mDnsServers) ||
+                    !mSearchDomains.equals(other.mSearchDomains)) {
+                return false;
+            }
+            prepareRoutes();
+            other.prepareRoutes();
+            if ((mSplitTunneling & VpnProfile.SPLIT_TUNNELING_BLOCK_IPV4) == 0 && mIPv4Seen &&
+                    !mAppliedRoutesIPv4.equals(other.mAppliedRoutesIPv4)) {
+                return false;
+            }
+            if ((mSplitTunneling & VpnProfile.SPLIT_TUNNELING_BLOCK_IPV6) == 0 && mIPv6Seen &&
+                    !mAppliedRoutesIPv6.equals(other.mAppliedRoutesIPv6)) {
+                return false;
+            }
+            return true;
+        }
+
+        /**
+         * Compute the routes that are installed for each address family, if any.
+         */
+        private void prepareRoutes() {
+            /* split tunneling is used depending on the routes and configuration */
+            if ((mSplitTunneling & VpnProfile.SPLIT_TUNNELING_BLOCK_IPV4) == 0 && mIPv4Seen) {
+                mAppliedRoutesIPv4 = getRoutes(mAppliedRoutesIPv4, mIncludedSubnetsv4,
+                        mIncludedRoutesv4, mRoutesIPv4);
+            }
+            if ((mSplitTunneling & VpnProfile.SPLIT_TUNNELING_BLOCK_IPV6) == 0 && mIPv6Seen) {
+                mAppliedRoutesIPv6 = getRoutes(mAppliedRoutesIPv6, mIncludedSubnetsv6,
+                        mIncludedRoutesv6, mRoutesIPv6);
             }
         }
 
@@ -1016,27 +1633,12 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             for (InetAddress server : mDnsServers) {
                 builder.addDnsServer(server);
             }
+            prepareRoutes();
             /* add routes depending on whether split tunneling is allowed or not,
              * that is, whether we have to handle and block non-VPN traffic */
             if ((mSplitTunneling & VpnProfile.SPLIT_TUNNELING_BLOCK_IPV4) == 0) {
-                if (mIPv4Seen) {    /* split tunneling is used depending on the routes and configuration */
-                    IPRangeSet ranges = new IPRangeSet();
-                    if (mIncludedSubnetsv4.size() > 0) {
-                        ranges.add(mIncludedSubnetsv4);
-                    } else {
-                        ranges.addAll(mRoutesIPv4);
-                    }
-                    ranges.remove(mExcludedSubnets);
-                    for (IPRange subnet : ranges.subnets()) {
-                        try {
-                            builder.addRoute(subnet.getFrom(), subnet.getPrefix());
-                        } catch (IllegalArgumentException e) {    /* some Android versions don't seem to like multicast addresses here,
-                         * ignore it for now */
-                            if (!subnet.getFrom().isMulticastAddress()) {
-                                throw e;
-                            }
-                        }
-                    }
+                if (mIPv4Seen) {
+                    mAppliedRoutesIPv4.apply(builder);
                 } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {    /* allow traffic that would otherwise be blocked to bypass the VPN */
                     builder.allowFamily(OsConstants.AF_INET);
                 }
@@ -1047,22 +1649,7 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             /* same thing for IPv6 */
             if ((mSplitTunneling & VpnProfile.SPLIT_TUNNELING_BLOCK_IPV6) == 0) {
                 if (mIPv6Seen) {
-                    IPRangeSet ranges = new IPRangeSet();
-                    if (mIncludedSubnetsv6.size() > 0) {
-                        ranges.add(mIncludedSubnetsv6);
-                    } else {
-                        ranges.addAll(mRoutesIPv6);
-                    }
-                    ranges.remove(mExcludedSubnets);
-                    for (IPRange subnet : ranges.subnets()) {
-                        try {
-                            builder.addRoute(subnet.getFrom(), subnet.getPrefix());
-                        } catch (IllegalArgumentException e) {
-                            if (!subnet.getFrom().isMulticastAddress()) {
-                                throw e;
-                            }
-                        }
-                    }
+                    mAppliedRoutesIPv6.apply(builder);
                 } else if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.LOLLIPOP) {
                     builder.allowFamily(OsConstants.AF_INET6);
                 }
@@ -1098,15 +1685,180 @@ public class CharonVpnService extends VpnService implements Runnable, VpnStateSe
             builder.setMtu(mMtu);
         }
 
-        private boolean isIPv6(String address) throws UnknownHostException {
-            InetAddress addr = Utils.parseInetAddress(address);
-            if (addr instanceof Inet4Address) {
-                return false;
-            } else if (addr instanceof Inet6Address) {
-                return true;
+        /**
+         * Get the routes for one address family, either the previously computed ones, if they
+         * are still valid, or newly computed ones.
+         *
+         * @param cached         previously computed routes (may be null)
+         * @param included       included subnets of this family
+         * @param includedRoutes included subnets of this family minus the excluded subnets
+         * @param routes         routes received from the daemon for this family
+         */
+        private Routes getRoutes(Routes cached, IPRangeSet included, IPRangeSet includedRoutes,
+                                 List<IPRange> routes) {
+            if (included.size() > 0) {    /* routes received from the daemon are ignored */
+                if (cached == null || cached.mInput != null) {
+                    cached = new Routes(null, includedRoutes);
+                }
+                return cached;
+            }
+            if (cached == null || !routes.equals(cached.mInput)) {
+                IPRangeSet ranges = new IPRangeSet();
+                ranges.addAll(routes);
+                ranges.remove(mExcludedSubnets);
+                cached = new Routes(new ArrayList<>(routes), ranges);
             }
-            return false;
+            return cached;
+        }
+
+        /**
+         * Subnets to install as routes for one address family, widened if necessary to stay within
+         * the configured route budget.
+         */
+        private class Routes {
+            /* routes received from the daemon these were computed from, null if not used */
+            private final List<IPRange> mInput;
+            private final InetAddress[] mAddresses;
+            private final int[] mPrefixes;
+
+            Routes(List<IPRange> input, IPRangeSet ranges) {
+                mInput = input;
+                if (mRouteBudget > 0) {
+                    SubnetCover cover = new SubnetCover(ranges, mRouteBudget);
+                    if (cover.getWidened().size() > 0) {
+                        Log.w(TAG, String.format(Locale.US, "route budget of %d exceeded, widened %d routes (%s additional addresses): %s",
+                                mRouteBudget, cover.getWidened().size(), cover.getExcess(), cover.getWidened()));
+                    }
+                    List<IPRange> subnets = cover.getSubnets();
+                    mAddresses = new InetAddress[subnets.size()];
+                    mPrefixes = new int[subnets.size()];
+                    for (int i = 0; i < subnets.size(); i++) {
+                        mAddresses[i] = subnets.get(i).getFrom();
+                        mPrefixes[i] = subnets.get(i).getPrefix();
+                    }
+                    return;
+                }
+                /* enumerate the subnets directly, without creating IPRange objects for them */
+                List<InetAddress> addresses = new ArrayList<>();
+                int[] prefixes = new int[16];
+                SubnetCursor cursor = ranges.subnetCursor();
+                while (cursor.next()) {
+                    if (addresses.size() == prefixes.length) {
+                        prefixes = Arrays.copyOf(prefixes, prefixes.length * 2);
+                    }
+                    prefixes[addresses.size()] = cursor.getPrefix();
+                    addresses.add(cursor.getInetAddress());
+                }
+                mAddresses = addresses.toArray(new InetAddress[0]);
+                mPrefixes = prefixes;
+            }
+
+            void apply(VpnService.Builder builder) {
+                for (int i = 0; i < mAddresses.length; i++) {
+                    addRoute(builder, mAddresses[i], mPrefixes[i]);
+                }
+            }
+
+            @Override
+            public boolean equals(Object o) {
+                if (o == this) {
+                    return true;
+                }
+                if (!(o instanceof Routes)) {
+                    return false;
+                }
+                Routes other = (Routes) o;
+                if (mAddresses.length != other.mAddresses.length) {
+                    return false;
+                }
+                for (int i = 0; i < mAddresses.length; i++) {
+                    if (mPrefixes[i] != other.mPrefixes[i]) {
+                        return false;
+                    }
+                }
+                return Arrays.equals(mAddresses, other.mAddresses);
+            }
+
+            @Override
+            public int hashCode() {
+                return Arrays.hashCode(mAddresses);
+            }
+        }
+
+        private void addRoute(VpnService.Builder builder, InetAddress address, int prefixLength) {
+            try {
+                builder.addRoute(address, prefixLength);
+            } catch (IllegalArgumentException e) {    /* some Android versions don't seem to like multicast addresses here,
+             * ignore it for now */
+                if (!address.isMulticastAddress()) {
+                    throw e;
+                }
+            }
+        }
+    }
+
+    /**
+     * Get the length of addresses of the given family (FAMILY_IPV4 or FAMILY_IPV6).
+     *
+     * @throws IllegalArgumentException if the family is unknown
+     */
+    private static int getAddressLength(int family) {
+        switch (family) {
+            case FAMILY_IPV4:
+                return 4;
+            case FAMILY_IPV6:
+                return 16;
+            default:
+                throw new IllegalArgumentException("Invalid address family");
+        }
+    }
+
+    /**
+     * Unpack the subnets passed to the bulk methods of BuilderAdapter.
+     *
+     * @throws IllegalArgumentException if the arrays don't match or any subnet is invalid
+     */
+    private static List<IPRange> unpackRanges(int[] families, byte[] addresses, int[] prefixLengths) {
+        if (families.length != prefixLengths.length) {
+            throw new IllegalArgumentException("Invalid number of prefix lengths");
+        }
+        List<IPRange> ranges = new ArrayList<>(families.length);
+        int offset = 0;
+        for (int i = 0; i < families.length; i++) {
+            int length = getAddressLength(families[i]);
+            ranges.add(new IPRange(addresses, offset, length, prefixLengths[i]));
+            offset += length;
+        }
+        if (offset != addresses.length) {
+            throw new IllegalArgumentException("Invalid length of addresses");
+        }
+        return ranges;
+    }
+
+    /**
+     * Unpack the addresses passed to the bulk methods of BuilderAdapter.
+     *
+     * @throws IllegalArgumentException if the arrays don't match
+     */
+    private static List<InetAddress> unpackAddresses(int[] families, byte[] addresses) {
+        List<InetAddress> list = new ArrayList<>(families.length);
+        int offset = 0;
+        for (int family : families) {
+            int length = getAddressLength(family);
+            if (offset > addresses.length - length) {
+                throw new IllegalArgumentException("Invalid length of addresses");
+            }
+            try {
+                list.add(InetAddress.getByAddress(Arrays.copyOfRange(addresses, offset, offset + length)));
+            } catch (UnknownHostException e) {
+                throw new IllegalArgumentException(e);
+            }
+            offset += length;
+        }
+        if (offset != addresses.length) {
+            throw new IllegalArgumentException("Invalid length of addresses");
         }
+        return list;
     }
 
     /**
@@ -0,0 +1,285 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.logic;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * Records when the phases of establishing a connection are reached, using a monotonic clock.
+ * <p>
+ * Each connection attempt gets a timeline, which is started with {@link #PHASE_CONNECT} (or
+ * {@link #PHASE_START_COMMAND} if the service is started otherwise).  Only the first time a phase
+ * is reached is recorded.  Once {@link #PHASE_CONNECTED} is reached, the timeline is completed,
+ * the latency of each phase (time since the previous recorded phase) is added to a histogram and
+ * the timeline is added to the list of recent timelines.  Phases reached after that (e.g. when
+ * rekeying) are ignored until a new timeline is started.
+ * <p>
+ * Recording is lock-free and may be done by any thread.
+ */
+public class ConnectionTimings
+{
+	public static final int PHASE_CONNECT = 0;
+	public static final int PHASE_START_COMMAND = 1;
+	public static final int PHASE_INITIALIZE_CHARON = 2;
+	public static final int PHASE_INITIATE = 3;
+	public static final int PHASE_FIRST_CALLBACK = 4;
+	public static final int PHASE_ESTABLISH = 5;
+	public static final int PHASE_CONNECTED = 6;
+	private static final String[] PHASE_NAMES = {"connect", "startCommand", "initializeCharon", "initiate",
+												 "firstCallback", "establish", "connected"};
+	/* the total time of a connection attempt is tracked as additional histogram */
+	private static final int TOTAL = PHASE_NAMES.length;
+	private static final int RECENT = 16;
+
+	/* histograms use 8 linear sub-buckets per power of two of microseconds (max. error 12.5%) */
+	private static final int SUB_BUCKET_BITS = 3;
+	private static final int LINEAR = 2 << SUB_BUCKET_BITS;
+	private static final int BUCKETS = LINEAR + (63 - SUB_BUCKET_BITS - 1) * (1 << SUB_BUCKET_BITS);
+
+	private static final ConnectionTimings sInstance = new ConnectionTimings();
+
+	private final AtomicReference<Timeline> mCurrent = new AtomicReference<>();
+	private final AtomicReferenceArray<Timeline> mRecent = new AtomicReferenceArray<>(RECENT);
+	private final AtomicLong mCompleted = new AtomicLong();
+	private final AtomicLongArray[] mHistograms = new AtomicLongArray[TOTAL + 1];
+
+	/**
+	 * Timestamps of a single connection attempt (0 if a phase was not reached).
+	 */
+	private static class Timeline
+	{
+		final AtomicLongArray mTimes = new AtomicLongArray(PHASE_NAMES.length);
+	}
+
+	public ConnectionTimings()
+	{
+		for (int i = 0; i < mHistograms.length; i++)
+		{
+			mHistograms[i] = new AtomicLongArray(BUCKETS);
+		}
+	}
+
+	/**
+	 * Get the instance used by the service.
+	 */
+	public static ConnectionTimings getInstance()
+	{
+		return sInstance;
+	}
+
+	/**
+	 * Get the name of the given phase (or of the total time for getPhaseCount()).
+	 */
+	public static String getPhaseName(int phase)
+	{
+		return phase == TOTAL ? "total" : PHASE_NAMES[phase];
+	}
+
+	/**
+	 * Number of phases, there is an additional histogram for the total time at this index.
+	 */
+	public static int getPhaseCount()
+	{
+		return PHASE_NAMES.length;
+	}
+
+	/**
+	 * Record that the given phase was reached now.
+	 *
+	 * @param phase one of the PHASE_* constants
+	 */
+	public void mark(int phase)
+	{
+		mark(phase, System.nanoTime());
+	}
+
+	/**
+	 * Record that the given phase was reached at the given time.
+	 *
+	 * @param phase one of the PHASE_* constants
+	 * @param now   time in ns, as returned by System.nanoTime()
+	 */
+	public void mark(int phase, long now)
+	{
+		/* 0 is used to mark phases that were not reached */
+		now = now == 0 ? 1 : now;
+		while (true)
+		{
+			Timeline timeline = mCurrent.get();
+			boolean done = timeline == null || timeline.mTimes.get(PHASE_CONNECTED) != 0;
+			if (phase == PHASE_CONNECT ||
+				(phase == PHASE_START_COMMAND && (done || timeline.mTimes.get(phase) != 0)))
+			{
+				Timeline started = new Timeline();
+				started.mTimes.set(phase, now);
+				if (mCurrent.compareAndSet(timeline, started))
+				{
+					return;
+				}
+				continue;
+			}
+			if (done || !timeline.mTimes.compareAndSet(phase, 0, now))
+			{	/* not started, completed or already reached */
+				return;
+			}
+			if (phase == PHASE_CONNECTED)
+			{
+				complete(timeline);
+			}
+			return;
+		}
+	}
+
+	private void complete(Timeline timeline)
+	{
+		long first = 0, previous = 0;
+		for (int i = 0; i < PHASE_NAMES.length; i++)
+		{
+			long time = timeline.mTimes.get(i);
+			if (time == 0)
+			{
+				continue;
+			}
+			if (first == 0)
+			{
+				first = time;
+			}
+			else
+			{
+				record(mHistograms[i], time - previous);
+			}
+			previous = time;
+		}
+		record(mHistograms[TOTAL], previous - first);
+		mRecent.set((int)(mCompleted.getAndIncrement() % RECENT), timeline);
+	}
+
+	private static void record(AtomicLongArray histogram, long nanos)
+	{
+		histogram.incrementAndGet(getBucket(Math.max(nanos / 1000, 0)));
+	}
+
+	private static int getBucket(long micros)
+	{
+		if (micros < LINEAR)
+		{
+			return (int)micros;
+		}
+		int exp = 63 - Long.numberOfLeadingZeros(micros);
+		int sub = (int)(micros >>> (exp - SUB_BUCKET_BITS)) & ((1 << SUB_BUCKET_BITS) - 1);
+		return LINEAR + (exp - SUB_BUCKET_BITS - 1) * (1 << SUB_BUCKET_BITS) + sub;
+	}
+
+	/**
+	 * Get the smallest value (in us) of the given bucket.
+	 */
+	private static long getBucketValue(int bucket)
+	{
+		if (bucket < LINEAR)
+		{
+			return bucket;
+		}
+		int exp = (bucket - LINEAR) / (1 << SUB_BUCKET_BITS) + SUB_BUCKET_BITS + 1;
+		long sub = (bucket - LINEAR) % (1 << SUB_BUCKET_BITS);
+		return (1L << exp) | (sub << (exp - SUB_BUCKET_BITS));
+	}
+
+	/**
+	 * Number of completed connection attempts recorded for the given phase.
+	 *
+	 * @param phase one of the PHASE_* constants, or getPhaseCount() for the total time
+	 */
+	public long getCount(int phase)
+	{
+		AtomicLongArray histogram = mHistograms[phase];
+		long count = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			count += histogram.get(i);
+		}
+		return count;
+	}
+
+	/**
+	 * Get the given percentile of the latency of the given phase, i.e. the time since the
+	 * previous recorded phase.
+	 *
+	 * @param phase      one of the PHASE_* constants, or getPhaseCount() for the total time
+	 * @param percentile percentile (0-100)
+	 * @return latency in ms (precise to about 12.5%), -1 if nothing was recorded
+	 */
+	public double getPercentile(int phase, double percentile)
+	{
+		AtomicLongArray histogram = mHistograms[phase];
+		long[] counts = new long[BUCKETS];
+		long total = 0;
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			counts[i] = histogram.get(i);
+			total += counts[i];
+		}
+		if (total == 0)
+		{
+			return -1;
+		}
+		long rank = Math.max((long)Math.ceil(total * percentile / 100.0), 1);
+		for (int i = 0; i < BUCKETS; i++)
+		{
+			rank -= counts[i];
+			if (rank <= 0)
+			{	/* use the middle of the bucket */
+				long value = i + 1 < BUCKETS ? (getBucketValue(i) + getBucketValue(i + 1)) / 2 : getBucketValue(i);
+				return value / 1000.0;
+			}
+		}
+		return -1;
+	}
+
+	/**
+	 * Get the most recent completed timelines, oldest first.  Each contains the time (in ms) at
+	 * which each phase was reached, relative to the first recorded phase, or -1 if it was not.
+	 */
+	public List<double[]> getTimelines()
+	{
+		List<double[]> timelines = new ArrayList<>();
+		long completed = mCompleted.get();
+		for (long i = Math.max(completed - RECENT, 0); i < completed; i++)
+		{
+			Timeline timeline = mRecent.get((int)(i % RECENT));
+			if (timeline == null)
+			{
+				continue;
+			}
+			double[] times = new double[PHASE_NAMES.length];
+			long first = 0;
+			for (int j = 0; j < times.length; j++)
+			{
+				long time = timeline.mTimes.get(j);
+				if (time != 0 && first == 0)
+				{
+					first = time;
+				}
+				times[j] = time == 0 ? -1 : (time - first) / 1000000.0;
+			}
+			timelines.add(times);
+		}
+		return timelines;
+	}
+}
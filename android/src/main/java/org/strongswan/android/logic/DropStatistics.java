@@ -0,0 +1,184 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.logic;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * Statistics about the packets that were sent to the blocking TUN device while reconnecting.
+ * <p>
+ * Packets are only recorded by a single thread, so the counters are updated without locking or
+ * atomic read-modify-write operations, but may be read by any thread.
+ */
+public class DropStatistics
+{
+	public static final int PROTO_TCP = 0;
+	public static final int PROTO_UDP = 1;
+	public static final int PROTO_ICMP = 2;
+	public static final int PROTO_OTHER = 3;
+	private static final String[] PROTO_NAMES = {"TCP", "UDP", "ICMP", "other"};
+
+	private volatile long mPackets, mBytes;
+	private volatile long mFirst = -1, mLast = -1;
+	private volatile int mMaxBurst;
+	private final AtomicLongArray mProtoPackets = new AtomicLongArray(PROTO_NAMES.length);
+
+	/**
+	 * Get the name of the given protocol (one of the PROTO_* constants).
+	 */
+	public static String getProtocolName(int proto)
+	{
+		return PROTO_NAMES[proto];
+	}
+
+	/**
+	 * Number of protocols that are counted separately.
+	 */
+	public static int getProtocolCount()
+	{
+		return PROTO_NAMES.length;
+	}
+
+	/**
+	 * Record a packet.
+	 *
+	 * @param packet IP packet (between position and limit), not modified
+	 * @param now    current time in ms
+	 */
+	void record(ByteBuffer packet, long now)
+	{
+		int proto = getProtocol(packet);
+		mProtoPackets.lazySet(proto, mProtoPackets.get(proto) + 1);
+		mPackets = mPackets + 1;
+		mBytes = mBytes + packet.remaining();
+		if (mFirst < 0)
+		{
+			mFirst = now;
+		}
+		mLast = now;
+	}
+
+	/**
+	 * Record the number of packets that were read in a row without having to wait.
+	 */
+	void recordBurst(int packets)
+	{
+		if (packets > mMaxBurst)
+		{
+			mMaxBurst = packets;
+		}
+	}
+
+	/**
+	 * Determine the protocol of the given packet from its IP header (extension headers of IPv6
+	 * packets are not followed).
+	 */
+	private static int getProtocol(ByteBuffer packet)
+	{
+		int pos = packet.position(), len = packet.remaining();
+		if (len < 1)
+		{
+			return PROTO_OTHER;
+		}
+		int proto;
+		switch ((packet.get(pos) & 0xf0) >> 4)
+		{
+			case 4:
+				if (len < 20)
+				{
+					return PROTO_OTHER;
+				}
+				proto = packet.get(pos + 9) & 0xff;
+				break;
+			case 6:
+				if (len < 40)
+				{
+					return PROTO_OTHER;
+				}
+				proto = packet.get(pos + 6) & 0xff;
+				break;
+			default:
+				return PROTO_OTHER;
+		}
+		switch (proto)
+		{
+			case 6:
+				return PROTO_TCP;
+			case 17:
+				return PROTO_UDP;
+			case 1:
+			case 58:
+				return PROTO_ICMP;
+			default:
+				return PROTO_OTHER;
+		}
+	}
+
+	/**
+	 * Number of packets that were dropped.
+	 */
+	public long getPackets()
+	{
+		return mPackets;
+	}
+
+	/**
+	 * Number of bytes of all dropped packets.
+	 */
+	public long getBytes()
+	{
+		return mBytes;
+	}
+
+	/**
+	 * Largest number of packets that were read in a row.
+	 */
+	public int getMaxBurst()
+	{
+		return mMaxBurst;
+	}
+
+	/**
+	 * Time between the first and the last packet in ms.
+	 */
+	public long getDuration()
+	{
+		long first = mFirst;
+		return first < 0 ? 0 : mLast - first;
+	}
+
+	/**
+	 * Number of packets of the given protocol (one of the PROTO_* constants).
+	 */
+	public long getPackets(int proto)
+	{
+		return mProtoPackets.get(proto);
+	}
+
+	@Override
+	public String toString()
+	{
+		StringBuilder sb = new StringBuilder();
+		sb.append(String.format(Locale.US, "%d packets (%d bytes) in %d ms, max burst %d",
+								getPackets(), getBytes(), getDuration(), getMaxBurst()));
+		for (int i = 0; i < PROTO_NAMES.length; i++)
+		{
+			sb.append(i == 0 ? " (" : ", ").append(PROTO_NAMES[i]).append(": ").append(getPackets(i));
+		}
+		return sb.append(")").toString();
+	}
+}
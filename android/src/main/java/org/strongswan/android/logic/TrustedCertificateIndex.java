@@ -0,0 +1,409 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.logic;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.security.cert.CertificateEncodingException;
+import java.security.cert.CertificateException;
+import java.security.cert.CertificateFactory;
+import java.security.cert.X509Certificate;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Persistent index of the trusted CA certificates, so they don't have to be loaded from the
+ * keystores and parsed after the process is started.
+ * <p>
+ * The file is memory-mapped when read.  It contains a version string (e.g. the build of the
+ * system) and the sorted list of all aliases in the keystores, which are used to validate the
+ * index (certificates whose alias doesn't change with their content are additionally compared
+ * to the keystores by the caller), followed by an entry for each certificate (alias, SHA-256
+ * fingerprint, hash of the subject DN, subject key identifier, offset and length of the DER
+ * encoding), the DER encodings and a CRC-32 checksum, all in network order.  Encodings are only
+ * copied from the file and parsed when they are actually needed.
+ */
+class TrustedCertificateIndex
+{
+	private static final int MAGIC = 0x54434149; /* "TCAI" */
+	private static final int VERSION = 1;
+	private static final Charset UTF8 = Charset.forName("UTF-8");
+	private static final String SUBJECT_KEY_IDENTIFIER = "2.5.29.14";
+
+	/**
+	 * A certificate in the index.
+	 */
+	static class Entry
+	{
+		final String mAlias;
+		final byte[] mFingerprint;
+		final long mSubjectHash;
+		final byte[] mKeyId;
+		private final ByteBuffer mDer;
+		private volatile byte[] mEncoding;
+
+		private Entry(String alias, byte[] fingerprint, long subjectHash, byte[] keyId, ByteBuffer der)
+		{
+			mAlias = alias;
+			mFingerprint = fingerprint;
+			mSubjectHash = subjectHash;
+			mKeyId = keyId;
+			mDer = der;
+		}
+
+		/**
+		 * Create an entry for the given certificate.
+		 *
+		 * @throws CertificateEncodingException if the certificate can't be encoded
+		 */
+		static Entry fromCertificate(String alias, X509Certificate cert) throws CertificateEncodingException
+		{
+			byte[] encoding = cert.getEncoded();
+			byte[] keyId = unwrapOctetString(unwrapOctetString(cert.getExtensionValue(SUBJECT_KEY_IDENTIFIER)));
+			if (keyId == null || keyId.length > 0xff)
+			{	/* key identifiers are usually 20 bytes, ignore anything that's too long to store */
+				keyId = new byte[0];
+			}
+			Entry entry = new Entry(alias, sha256(encoding), hashSubject(cert.getSubjectX500Principal().getEncoded()),
+									keyId, ByteBuffer.wrap(encoding));
+			entry.mEncoding = encoding;
+			return entry;
+		}
+
+		/**
+		 * Get the DER encoding of the certificate, which is shared and must not be modified.
+		 */
+		byte[] getEncoding()
+		{
+			byte[] encoding = mEncoding;
+			if (encoding == null)
+			{
+				encoding = new byte[mDer.remaining()];
+				mDer.duplicate().get(encoding);
+				mEncoding = encoding;
+			}
+			return encoding;
+		}
+
+		/**
+		 * Parse the certificate.
+		 *
+		 * @return the certificate, null if it can't be parsed
+		 */
+		X509Certificate parse()
+		{
+			try
+			{
+				CertificateFactory factory = CertificateFactory.getInstance("X.509");
+				return (X509Certificate)factory.generateCertificate(new ByteArrayInputStream(getEncoding()));
+			}
+			catch (CertificateException | ClassCastException e)
+			{
+				e.printStackTrace();
+				return null;
+			}
+		}
+	}
+
+	private final String mVersion;
+	private final List<String> mAliases;
+	private final List<Entry> mEntries;
+
+	/**
+	 * Create an index with the given entries.
+	 *
+	 * @param version version string used to validate the index
+	 * @param aliases sorted list of all aliases in the keystores
+	 * @param entries certificates
+	 */
+	TrustedCertificateIndex(String version, List<String> aliases, List<Entry> entries)
+	{
+		mVersion = version;
+		mAliases = aliases;
+		mEntries = entries;
+	}
+
+	/**
+	 * Check if this index is valid for the given version and aliases.
+	 *
+	 * @param version version string
+	 * @param aliases sorted list of all aliases in the keystores
+	 */
+	boolean matches(String version, List<String> aliases)
+	{
+		return mVersion.equals(version) && mAliases.equals(aliases);
+	}
+
+	List<Entry> getEntries()
+	{
+		return mEntries;
+	}
+
+	/**
+	 * Read the index from the given file.
+	 *
+	 * @param file file to read
+	 * @return the index, null if not found or invalid (the file is deleted in the latter case)
+	 */
+	static TrustedCertificateIndex read(File file)
+	{
+		if (!file.exists())
+		{
+			return null;
+		}
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			MappedByteBuffer buffer;
+			try
+			{
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			}
+			finally
+			{
+				raf.close();
+			}
+			return decode(buffer);
+		}
+		catch (IOException | IllegalArgumentException | BufferUnderflowException e)
+		{
+			e.printStackTrace();
+			file.delete();
+			return null;
+		}
+	}
+
+	private static TrustedCertificateIndex decode(ByteBuffer buffer)
+	{
+		int length = buffer.remaining() - 4;
+		if (length < 8 || buffer.getInt() != MAGIC || buffer.getInt() != VERSION)
+		{
+			throw new IllegalArgumentException("Invalid index");
+		}
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[8192];
+		ByteBuffer data = buffer.duplicate();
+		data.position(0);
+		for (int left = length; left > 0; left -= chunk.length)
+		{
+			int len = Math.min(left, chunk.length);
+			data.get(chunk, 0, len);
+			crc.update(chunk, 0, len);
+		}
+		if (buffer.getInt(length) != (int)crc.getValue())
+		{
+			throw new IllegalArgumentException("Invalid checksum");
+		}
+		String version = getString(buffer);
+		int count = getCount(buffer);
+		List<String> aliases = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			aliases.add(getString(buffer));
+		}
+		count = getCount(buffer);
+		List<Entry> entries = new ArrayList<>(count);
+		for (int i = 0; i < count; i++)
+		{
+			String alias = getString(buffer);
+			byte[] fingerprint = new byte[32];
+			buffer.get(fingerprint);
+			long subjectHash = buffer.getLong();
+			byte[] keyId = new byte[buffer.get() & 0xff];
+			buffer.get(keyId);
+			int offset = buffer.getInt(), len = buffer.getInt();
+			if (offset < 0 || len < 0 || offset > length - len)
+			{
+				throw new IllegalArgumentException("Invalid offset");
+			}
+			ByteBuffer der = buffer.duplicate();
+			der.limit(offset + len);
+			der.position(offset);
+			entries.add(new Entry(alias, fingerprint, subjectHash, keyId, der.slice()));
+		}
+		return new TrustedCertificateIndex(version, aliases, entries);
+	}
+
+	private static int getCount(ByteBuffer buffer)
+	{
+		int count = buffer.getInt();
+		if (count < 0 || count > buffer.remaining())
+		{
+			throw new IllegalArgumentException("Invalid count");
+		}
+		return count;
+	}
+
+	private static String getString(ByteBuffer buffer)
+	{
+		byte[] str = new byte[buffer.getShort() & 0xffff];
+		buffer.get(str);
+		return new String(str, UTF8);
+	}
+
+	/**
+	 * Write the index to the given file.  Errors are only logged.
+	 *
+	 * @param file file to write
+	 */
+	void write(File file)
+	{
+		File tmp = new File(file.getPath() + ".tmp");
+		try
+		{
+			byte[] encoding = encode();
+			FileOutputStream out = new FileOutputStream(tmp);
+			try
+			{
+				out.write(encoding);
+			}
+			finally
+			{
+				out.close();
+			}
+			if (!tmp.renameTo(file))
+			{
+				throw new IOException("Unable to rename " + tmp);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			tmp.delete();
+		}
+	}
+
+	private byte[] encode() throws IOException
+	{
+		ByteArrayOutputStream header = new ByteArrayOutputStream();
+		DataOutputStream out = new DataOutputStream(header);
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		putString(out, mVersion);
+		out.writeInt(mAliases.size());
+		for (String alias : mAliases)
+		{
+			putString(out, alias);
+		}
+		out.writeInt(mEntries.size());
+		/* the encodings follow the fixed-size parts of the entries, which we count here */
+		int offset = out.size();
+		for (Entry entry : mEntries)
+		{
+			offset += 2 + entry.mAlias.getBytes(UTF8).length + 32 + 8 + 1 + entry.mKeyId.length + 8;
+		}
+		for (Entry entry : mEntries)
+		{
+			int len = entry.getEncoding().length;
+			putString(out, entry.mAlias);
+			out.write(entry.mFingerprint);
+			out.writeLong(entry.mSubjectHash);
+			out.writeByte(entry.mKeyId.length);
+			out.write(entry.mKeyId);
+			out.writeInt(offset);
+			out.writeInt(len);
+			offset += len;
+		}
+		for (Entry entry : mEntries)
+		{
+			out.write(entry.getEncoding());
+		}
+		CRC32 crc = new CRC32();
+		crc.update(header.toByteArray());
+		out.writeInt((int)crc.getValue());
+		return header.toByteArray();
+	}
+
+	private static void putString(DataOutputStream out, String str) throws IOException
+	{
+		byte[] bytes = str.getBytes(UTF8);
+		if (bytes.length > 0xffff)
+		{
+			throw new IOException("String too long");
+		}
+		out.writeShort(bytes.length);
+		out.write(bytes);
+	}
+
+	/**
+	 * Hash the given DER encoded subject DN to a 64-bit value.
+	 */
+	static long hashSubject(byte[] subject)
+	{
+		return ByteBuffer.wrap(sha256(subject)).getLong();
+	}
+
+	static byte[] sha256(byte[] data)
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-256").digest(data);
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Get the contents of the given DER encoded OCTET STRING.
+	 *
+	 * @return contents, null if not an OCTET STRING (or if the encoding is null)
+	 */
+	private static byte[] unwrapOctetString(byte[] der)
+	{
+		if (der == null || der.length < 2 || der[0] != 0x04)
+		{
+			return null;
+		}
+		int len = der[1] & 0xff, pos = 2;
+		if (len == 0x80 || len > 0x84)
+		{
+			return null;
+		}
+		if (len > 0x80)
+		{
+			int bytes = len & 0x7f;
+			if (der.length < pos + bytes)
+			{
+				return null;
+			}
+			len = 0;
+			while (bytes-- > 0)
+			{
+				len = (len << 8) | (der[pos++] & 0xff);
+			}
+		}
+		if (len < 0 || len > der.length - pos)
+		{
+			return null;
+		}
+		return Arrays.copyOfRange(der, pos, pos + len);
+	}
+}
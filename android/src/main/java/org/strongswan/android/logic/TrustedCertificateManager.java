@@ -17,25 +17,39 @@
 
 package org.strongswan.android.logic;
 
+import android.os.Build;
 import android.util.Log;
 
+import java.io.File;
+import java.nio.ByteBuffer;
 import java.security.KeyStore;
 import java.security.KeyStoreException;
 import java.security.cert.Certificate;
+import java.security.cert.CertificateEncodingException;
 import java.security.cert.X509Certificate;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.EnumMap;
 import java.util.Enumeration;
+import java.util.HashMap;
 import java.util.Hashtable;
+import java.util.List;
+import java.util.Map;
 import java.util.Observable;
-import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.locks.ReentrantLock;
 
 public class TrustedCertificateManager extends Observable
 {
 	private static final String TAG = TrustedCertificateManager.class.getSimpleName();
-	private final ReentrantReadWriteLock mLock = new ReentrantReadWriteLock();
-	private Hashtable<String, X509Certificate> mCACerts = new Hashtable<String, X509Certificate>();
+	/* only serializes (re-)loading, readers use the current snapshot without locking */
+	private final ReentrantLock mLock = new ReentrantLock();
+	private volatile Snapshot mSnapshot = new Snapshot(new ArrayList<TrustedCertificateIndex.Entry>(), null);
 	private volatile boolean mReload;
-	private boolean mLoaded;
+	private volatile File mIndexFile;
+	private volatile boolean mLoaded;
 	private final ArrayList<KeyStore> mKeyStores = new ArrayList<KeyStore>();
 
 	public enum TrustedCertificateSource
@@ -55,6 +69,165 @@ public class TrustedCertificateManager extends Observable
 		{
 			return mPrefix;
 		}
+
+		/**
+		 * Determine the source of the certificate with the given alias.
+		 *
+		 * @return source, null if unknown
+		 */
+		private static TrustedCertificateSource fromAlias(String alias)
+		{
+			for (TrustedCertificateSource source : values())
+			{
+				if (alias.startsWith(source.getPrefix()))
+				{
+					return source;
+				}
+			}
+			return null;
+		}
+	}
+
+	/**
+	 * Immutable set of loaded certificates, indexed by alias, source, subject, key identifier and
+	 * fingerprint, and their DER encodings.
+	 * A new snapshot is published whenever the certificates are reloaded.  Certificates are only
+	 * parsed when requested, if they were read from the persistent index.
+	 */
+	private static class Snapshot
+	{
+		final Hashtable<String, TrustedCertificateIndex.Entry> mEntries = new Hashtable<>();
+		final EnumMap<TrustedCertificateSource, List<TrustedCertificateIndex.Entry>> mSourceEntries = new EnumMap<>(TrustedCertificateSource.class);
+		/* byte arrays are wrapped in buffers, which compare their contents */
+		final HashMap<Long, List<TrustedCertificateIndex.Entry>> mSubjects = new HashMap<>();
+		final HashMap<ByteBuffer, List<TrustedCertificateIndex.Entry>> mKeyIds = new HashMap<>();
+		final HashMap<ByteBuffer, TrustedCertificateIndex.Entry> mFingerprints = new HashMap<>();
+		final ConcurrentHashMap<String, X509Certificate> mParsed = new ConcurrentHashMap<>();
+		private final List<TrustedCertificateIndex.Entry> mEntryList;
+		/* built when first requested, it doesn't matter if that happens concurrently */
+		private volatile byte[][] mAllEncodings;
+		private final AtomicReferenceArray<byte[][]> mSourceEncodings = new AtomicReferenceArray<>(TrustedCertificateSource.values().length);
+
+		/**
+		 * @param entries certificates
+		 * @param parsed already parsed certificates (optional)
+		 */
+		Snapshot(List<TrustedCertificateIndex.Entry> entries, Map<String, X509Certificate> parsed)
+		{
+			mEntryList = entries;
+			for (TrustedCertificateSource source : TrustedCertificateSource.values())
+			{
+				mSourceEntries.put(source, new ArrayList<TrustedCertificateIndex.Entry>());
+			}
+			for (TrustedCertificateIndex.Entry entry : entries)
+			{
+				mEntries.put(entry.mAlias, entry);
+				TrustedCertificateSource source = TrustedCertificateSource.fromAlias(entry.mAlias);
+				if (source != null)
+				{
+					mSourceEntries.get(source).add(entry);
+				}
+				addEntry(mSubjects, entry.mSubjectHash, entry);
+				if (entry.mKeyId.length > 0)
+				{
+					addEntry(mKeyIds, ByteBuffer.wrap(entry.mKeyId), entry);
+				}
+				mFingerprints.put(ByteBuffer.wrap(entry.mFingerprint), entry);
+			}
+			if (parsed != null)
+			{
+				mParsed.putAll(parsed);
+			}
+		}
+
+		private static <K> void addEntry(HashMap<K, List<TrustedCertificateIndex.Entry>> map, K key,
+										 TrustedCertificateIndex.Entry entry)
+		{
+			List<TrustedCertificateIndex.Entry> entries = map.get(key);
+			if (entries == null)
+			{
+				entries = new ArrayList<>(1);
+				map.put(key, entries);
+			}
+			entries.add(entry);
+		}
+
+		/**
+		 * Get the DER encodings of all certificates.
+		 */
+		byte[][] getEncodings()
+		{
+			byte[][] encodings = mAllEncodings;
+			if (encodings == null)
+			{
+				encodings = getEncodings(mEntryList);
+				mAllEncodings = encodings;
+			}
+			return encodings;
+		}
+
+		/**
+		 * Get the DER encodings of all certificates from the given source.
+		 */
+		byte[][] getEncodings(TrustedCertificateSource source)
+		{
+			byte[][] encodings = mSourceEncodings.get(source.ordinal());
+			if (encodings == null)
+			{
+				encodings = getEncodings(mSourceEntries.get(source));
+				mSourceEncodings.set(source.ordinal(), encodings);
+			}
+			return encodings;
+		}
+
+		private static byte[][] getEncodings(List<TrustedCertificateIndex.Entry> entries)
+		{
+			if (entries == null)
+			{
+				return new byte[0][];
+			}
+			byte[][] encodings = new byte[entries.size()][];
+			for (int i = 0; i < encodings.length; i++)
+			{
+				encodings[i] = entries.get(i).getEncoding();
+			}
+			return encodings;
+		}
+
+		/**
+		 * Get the certificate with the given alias, parse it if necessary.
+		 */
+		X509Certificate getCertificate(String alias)
+		{
+			X509Certificate cert = mParsed.get(alias);
+			if (cert == null)
+			{
+				TrustedCertificateIndex.Entry entry = mEntries.get(alias);
+				if (entry == null || (cert = entry.parse()) == null)
+				{
+					return null;
+				}
+				mParsed.put(alias, cert);
+			}
+			return cert;
+		}
+
+		/**
+		 * Get the given certificates, parse them if necessary.
+		 */
+		Hashtable<String, X509Certificate> getCertificates(Iterable<TrustedCertificateIndex.Entry> entries)
+		{
+			Hashtable<String, X509Certificate> certs = new Hashtable<String, X509Certificate>();
+			for (TrustedCertificateIndex.Entry entry : entries)
+			{
+				X509Certificate cert = getCertificate(entry.mAlias);
+				if (cert != null)
+				{
+					certs.put(entry.mAlias, cert);
+				}
+			}
+			return certs;
+		}
 	}
 
 	/**
@@ -97,6 +270,20 @@ public class TrustedCertificateManager extends Observable
 		return Singleton.mInstance;
 	}
 
+	/**
+	 * Set the file in which an index of the certificates is stored, so they don't have to be
+	 * loaded from the keystores again when the process is restarted.  Only has an effect if the
+	 * certificates are not loaded yet.
+	 *
+	 * @param file index file, null to disable
+	 * @return reference to itself
+	 */
+	public TrustedCertificateManager setIndexFile(File file)
+	{
+		this.mIndexFile = file;
+		return this;
+	}
+
 	/**
 	 * Invalidates the current load state so that the next call to load()
 	 * will force a reload of the cached CA certificates.
@@ -119,36 +306,98 @@ public class TrustedCertificateManager extends Observable
 	 * As this takes a while if the certificates are not loaded yet it should
 	 * be called asynchronously.
 	 *
+	 * Only the initial load blocks callers.  Once the certificates are loaded, this returns
+	 * right away if another thread is reloading them, the previous certificates are used until
+	 * that's done.
+	 *
 	 * Observers are only notified when the certificates are initially loaded, not when reloaded.
 	 *
 	 * @return reference to itself
 	 */
 	public TrustedCertificateManager load()
 	{
+		if (this.mLoaded && !this.mReload)
+		{
+			return this;
+		}
 		Log.d(TAG, "Ensure cached CA certificates are loaded");
-		this.mLock.writeLock().lock();
-		if (!this.mLoaded || this.mReload)
+		if (this.mLoaded)
 		{
-			this.mReload = false;
-			loadCertificates();
+			if (!this.mLock.tryLock())
+			{
+				return this;
+			}
+		}
+		else
+		{
+			this.mLock.lock();
+		}
+		try
+		{
+			if (!this.mLoaded || this.mReload)
+			{	/* the index is only used initially, a reset indicates that a keystore changed */
+				boolean useIndex = !this.mReload;
+				this.mReload = false;
+				loadCertificates(useIndex);
+			}
+		}
+		finally
+		{
+			this.mLock.unlock();
 		}
-		this.mLock.writeLock().unlock();
 		return this;
 	}
 
 	/**
 	 * Opens the CA certificate KeyStore and loads the cached certificates.
 	 * The lock must be locked when calling this method.
+	 *
+	 * @param useIndex whether the certificates may be loaded from the index, if it's still valid
 	 */
-	private void loadCertificates()
+	private void loadCertificates(boolean useIndex)
 	{
 		Log.d(TAG, "Load cached CA certificates");
-		Hashtable<String, X509Certificate> certs = new Hashtable<String, X509Certificate>();
-		for (KeyStore store : this.mKeyStores)
+		File file = this.mIndexFile;
+		List<String> aliases = fetchAliases();
+		TrustedCertificateIndex index = null;
+		if (file != null && useIndex)
+		{	/* enumerating the aliases is cheap compared to loading and parsing the certificates */
+			index = TrustedCertificateIndex.read(file);
+			if (index != null && (!index.matches(Build.FINGERPRINT, aliases) || !verifyIndex(index)))
+			{
+				index = null;
+			}
+		}
+		if (index != null)
+		{
+			Log.d(TAG, "Use CA certificate index");
+			this.mSnapshot = new Snapshot(index.getEntries(), null);
+		}
+		else
 		{
-			fetchCertificates(certs, store);
+			Hashtable<String, X509Certificate> certs = new Hashtable<String, X509Certificate>();
+			for (KeyStore store : this.mKeyStores)
+			{
+				fetchCertificates(certs, store);
+			}
+			List<TrustedCertificateIndex.Entry> entries = new ArrayList<>();
+			for (Map.Entry<String, X509Certificate> cert : certs.entrySet())
+			{
+				try
+				{
+					entries.add(TrustedCertificateIndex.Entry.fromCertificate(cert.getKey(), cert.getValue()));
+				}
+				catch (CertificateEncodingException e)
+				{
+					e.printStackTrace();
+				}
+			}
+			this.mSnapshot = new Snapshot(entries, certs);
+			if (file != null)
+			{
+				new TrustedCertificateIndex(Build.FINGERPRINT, aliases, entries).write(file);
+			}
 		}
-		this.mCACerts = certs;
 		if (!this.mLoaded)
 		{
 			this.setChanged();
@@ -158,6 +407,82 @@ public class TrustedCertificateManager extends Observable
 		Log.d(TAG, "Cached CA certificates loaded");
 	}
 
+	/**
+	 * Check that the indexed certificates whose content is not implied by the build and their
+	 * alias still match the certificates in the keystores.  System certificates only change with
+	 * the build and local certificates are stored under their fingerprint.  But the aliases of
+	 * user certificates are derived from the subject, so if a certificate gets replaced with one
+	 * with the same subject (e.g. when it's renewed), the alias doesn't change.
+	 *
+	 * @param index index to verify
+	 * @return true if all certificates match
+	 */
+	private boolean verifyIndex(TrustedCertificateIndex index)
+	{
+		String local = TrustedCertificateSource.LOCAL.getPrefix();
+		for (TrustedCertificateIndex.Entry entry : index.getEntries())
+		{
+			if (entry.mAlias.startsWith(TrustedCertificateSource.SYSTEM.getPrefix()) ||
+				(entry.mAlias.startsWith(local) &&
+				 entry.mAlias.substring(local.length()).matches("[0-9a-fA-F]{40}|[0-9a-fA-F]{64}")))
+			{
+				continue;
+			}
+			Certificate cert = null;
+			for (KeyStore store : this.mKeyStores)
+			{
+				try
+				{
+					cert = store.getCertificate(entry.mAlias);
+				}
+				catch (KeyStoreException ex)
+				{
+					ex.printStackTrace();
+				}
+				if (cert != null)
+				{
+					break;
+				}
+			}
+			try
+			{
+				if (cert == null ||
+					!Arrays.equals(TrustedCertificateIndex.sha256(cert.getEncoded()), entry.mFingerprint))
+				{
+					Log.d(TAG, "CA certificate " + entry.mAlias + " changed");
+					return false;
+				}
+			}
+			catch (CertificateEncodingException ex)
+			{
+				ex.printStackTrace();
+				return false;
+			}
+		}
+		return true;
+	}
+
+	/**
+	 * Get the sorted list of aliases in all keystores.
+	 */
+	private List<String> fetchAliases()
+	{
+		List<String> aliases = new ArrayList<>();
+		for (KeyStore store : this.mKeyStores)
+		{
+			try
+			{
+				aliases.addAll(Collections.list(store.aliases()));
+			}
+			catch (KeyStoreException ex)
+			{
+				ex.printStackTrace();
+			}
+		}
+		Collections.sort(aliases);
+		return aliases;
+	}
+
 	/**
 	 * Load all X.509 certificates from the given KeyStore.
 	 *
@@ -194,34 +519,94 @@ public class TrustedCertificateManager extends Observable
 	 */
 	public X509Certificate getCACertificateFromAlias(String alias)
 	{
-		X509Certificate certificate = null;
+		return this.mSnapshot.getCertificate(alias);
+	}
+
+	/**
+	 * Retrieve the DER encoding of the CA certificate with the given alias.
+	 *
+	 * @param alias alias of the certificate to get
+	 * @return the encoding, null if not found
+	 */
+	public byte[] getCACertificateEncodingFromAlias(String alias)
+	{
+		TrustedCertificateIndex.Entry entry = this.mSnapshot.mEntries.get(alias);
+		return entry != null ? entry.getEncoding() : null;
+	}
 
-		if (this.mLock.readLock().tryLock())
+	/**
+	 * Get the DER encodings of all CA certificates (from all keystores).
+	 *
+	 * The returned array is shared and must not be modified.
+	 *
+	 * @return DER encoded certificates
+	 */
+	public byte[][] getAllCACertificateEncodings()
+	{
+		return this.mSnapshot.getEncodings();
+	}
+
+	/**
+	 * Get the DER encodings of all certificates from the given source.
+	 *
+	 * The returned array is shared and must not be modified.
+	 *
+	 * @param source type to filter certificates
+	 * @return DER encoded certificates
+	 */
+	public byte[][] getCACertificateEncodings(TrustedCertificateSource source)
+	{
+		return this.mSnapshot.getEncodings(source);
+	}
+
+	/**
+	 * Get the DER encodings of all CA certificates with the given subject DN.
+	 *
+	 * @param subject DER encoded subject DN
+	 * @return DER encoded certificates (might be empty)
+	 */
+	public byte[][] getCACertificateEncodingsBySubject(byte[] subject)
+	{
+		Snapshot snapshot = this.mSnapshot;
+		List<TrustedCertificateIndex.Entry> entries = snapshot.mSubjects.get(TrustedCertificateIndex.hashSubject(subject));
+		if (entries == null)
 		{
-			certificate = this.mCACerts.get(alias);
-			this.mLock.readLock().unlock();
+			return new byte[0][];
 		}
-		else
-		{	/* if we cannot get the lock load it directly from the KeyStore,
-			 * should be fast for a single certificate */
-			for (KeyStore store : this.mKeyStores)
+		/* the index only stores a truncated hash of the subject, so compare the actual subjects */
+		List<TrustedCertificateIndex.Entry> matches = new ArrayList<>(entries.size());
+		for (TrustedCertificateIndex.Entry entry : entries)
+		{
+			X509Certificate cert = snapshot.getCertificate(entry.mAlias);
+			if (cert != null && Arrays.equals(cert.getSubjectX500Principal().getEncoded(), subject))
 			{
-				try
-				{
-					Certificate cert = store.getCertificate(alias);
-					if (cert != null && cert instanceof X509Certificate)
-					{
-						certificate = (X509Certificate)cert;
-						break;
-					}
-				}
-				catch (KeyStoreException e)
-				{
-					e.printStackTrace();
-				}
+				matches.add(entry);
 			}
 		}
-		return certificate;
+		return Snapshot.getEncodings(matches);
+	}
+
+	/**
+	 * Get the DER encodings of all CA certificates with the given subject key identifier.
+	 *
+	 * @param keyId subject key identifier
+	 * @return DER encoded certificates (might be empty)
+	 */
+	public byte[][] getCACertificateEncodingsByKeyId(byte[] keyId)
+	{
+		return Snapshot.getEncodings(this.mSnapshot.mKeyIds.get(ByteBuffer.wrap(keyId)));
+	}
+
+	/**
+	 * Get the DER encoding of the CA certificate with the given SHA-256 fingerprint.
+	 *
+	 * @param fingerprint SHA-256 hash of the certificate's DER encoding
+	 * @return the encoding, null if not found
+	 */
+	public byte[] getCACertificateEncodingByFingerprint(byte[] fingerprint)
+	{
+		TrustedCertificateIndex.Entry entry = this.mSnapshot.mFingerprints.get(ByteBuffer.wrap(fingerprint));
+		return entry != null ? entry.getEncoding() : null;
 	}
 
 	/**
@@ -229,14 +614,10 @@ public class TrustedCertificateManager extends Observable
 	 *
 	 * @return Hashtable mapping aliases to certificates
 	 */
-	@SuppressWarnings("unchecked")
 	public Hashtable<String, X509Certificate> getAllCACertificates()
 	{
-		Hashtable<String, X509Certificate> certs;
-		this.mLock.readLock().lock();
-		certs = (Hashtable<String, X509Certificate>)this.mCACerts.clone();
-		this.mLock.readLock().unlock();
-		return certs;
+		Snapshot snapshot = this.mSnapshot;
+		return snapshot.getCertificates(snapshot.mEntries.values());
 	}
 
 	/**
@@ -247,16 +628,7 @@ public class TrustedCertificateManager extends Observable
 	 */
 	public Hashtable<String, X509Certificate> getCACertificates(TrustedCertificateSource source)
 	{
-		Hashtable<String, X509Certificate> certs = new Hashtable<String, X509Certificate>();
-		this.mLock.readLock().lock();
-		for (String alias : this.mCACerts.keySet())
-		{
-			if (alias.startsWith(source.getPrefix()))
-			{
-				certs.put(alias, this.mCACerts.get(alias));
-			}
-		}
-		this.mLock.readLock().unlock();
-		return certs;
+		Snapshot snapshot = this.mSnapshot;
+		return snapshot.getCertificates(snapshot.mSourceEntries.get(source));
 	}
 }
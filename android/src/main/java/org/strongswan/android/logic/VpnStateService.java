@@ -51,6 +51,7 @@ public class VpnStateService extends Service {
     private State mState = State.DISABLED;
     private ErrorState mError = ErrorState.NO_ERROR;
     private ImcState mImcState = ImcState.UNKNOWN;
+    private volatile DropStatistics mDropStatistics;
     private final LinkedList<RemediationInstruction> mRemediationInstructions = new LinkedList<RemediationInstruction>();
     private static long RETRY_INTERVAL = 1000;
     /* cap the retry interval at 2 minutes */
@@ -188,6 +189,25 @@ public class VpnStateService extends Service {
         return mError;
     }
 
+    /**
+     * Get statistics about the packets that were dropped while the last blocking TUN device
+     * was used during a reconnect.
+     *
+     * @return statistics, null if no blocking TUN device was used yet
+     */
+    public DropStatistics getDropStatistics() {
+        return mDropStatistics;
+    }
+
+    /**
+     * Set the statistics of the last blocking TUN device, called when it is closed.
+     *
+     * @param statistics statistics of the dropped packets
+     */
+    public void setDropStatistics(DropStatistics statistics) {
+        mDropStatistics = statistics;
+    }
+
     /**
      * Get a description of the current error, if any.
      *
@@ -264,6 +284,7 @@ public class VpnStateService extends Service {
      * @param fromScratch true if this is a manual retry/reconnect or a completely new connection
      */
     public void connect(Bundle profileInfo, boolean fromScratch) {
+        ConnectionTimings.getInstance().mark(ConnectionTimings.PHASE_CONNECT);
         /* we assume we have the necessary permission */
         Context context = getApplicationContext();
         Intent intent = new Intent(context, CharonVpnService.class);
@@ -44,6 +44,11 @@ public final class Constants
 	public static final int NAT_KEEPALIVE_MAX = 120;
 	public static final int NAT_KEEPALIVE_MIN = 10;
 
+	/**
+	 * Maximum size of the file packets are captured to while blocking
+	 */
+	public static final int CAPTURE_SIZE_MAX = 64 * 1024 * 1024;
+
 	/**
 	 * Preference key for default VPN profile
 	 */
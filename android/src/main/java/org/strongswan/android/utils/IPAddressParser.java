@@ -0,0 +1,328 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+/**
+ * Parser for textual IPv4 and IPv6 addresses that works directly on character sequences and
+ * doesn't create any objects.  Accepts the same forms as inet_pton(), i.e. dotted-decimal IPv4
+ * addresses and all textual forms of IPv6 addresses defined in RFC 4291 (including compressed
+ * zeros and an embedded IPv4 address), but no zone identifiers.
+ * <p>
+ * Parsed addresses are returned as unsigned 128-bit integer split into two longs, IPv4
+ * addresses use the lower 32 bits of the low part (same as in {@link IPRange}).
+ */
+public final class IPAddressParser
+{
+	public static final int INVALID = 0;
+	public static final int IPv4 = 4;
+	public static final int IPv6 = 6;
+
+	private IPAddressParser()
+	{
+	}
+
+	/**
+	 * Parse the address in the given part of a character sequence.
+	 *
+	 * @param str characters to parse
+	 * @param start index of the first character of the address
+	 * @param end index after the last character of the address
+	 * @param out array receiving the upper (index 0) and lower (index 1) 64 bits of the address
+	 * @return IPv4, IPv6 or INVALID if the address could not be parsed
+	 */
+	public static int parse(CharSequence str, int start, int end, long[] out)
+	{
+		return parse(str, start, end, out, null);
+	}
+
+	/**
+	 * Parse the address in the given part of a character sequence.
+	 *
+	 * @param str characters to parse
+	 * @param start index of the first character of the address
+	 * @param end index after the last character of the address
+	 * @param out array receiving the address in network order, i.e. 4 or 16 bytes at the start
+	 *            of the array (has to be large enough for an IPv6 address)
+	 * @return IPv4, IPv6 or INVALID if the address could not be parsed
+	 */
+	public static int parse(CharSequence str, int start, int end, byte[] out)
+	{
+		return parse(str, start, end, null, out);
+	}
+
+	/**
+	 * Parse the given address.
+	 *
+	 * @param str address to parse
+	 * @param out array receiving the address in network order (see above)
+	 * @return IPv4, IPv6 or INVALID if the address could not be parsed
+	 */
+	public static int parse(CharSequence str, byte[] out)
+	{
+		return parse(str, 0, str.length(), null, out);
+	}
+
+	/**
+	 * Determine the family of the given address, which is validated but not returned.
+	 *
+	 * @param str address to check
+	 * @return IPv4, IPv6 or INVALID if the address could not be parsed
+	 */
+	public static int getFamily(CharSequence str)
+	{
+		return parse(str, 0, str.length(), null, null);
+	}
+
+	/**
+	 * Check if the given IPv6 address is an IPv4-mapped address (::ffff:0:0/96).
+	 */
+	public static boolean isIPv4Mapped(long high, long low)
+	{
+		return high == 0 && (low >>> 32) == 0xffffL;
+	}
+
+	private static int parse(CharSequence str, int start, int end, long[] out, byte[] bytes)
+	{
+		for (int i = start; i < end; i++)
+		{
+			if (str.charAt(i) == ':')
+			{
+				return parseIPv6(str, start, end, out, bytes) ? IPv6 : INVALID;
+			}
+		}
+		long addr = parseIPv4(str, start, end);
+		if (addr < 0)
+		{
+			return INVALID;
+		}
+		if (out != null)
+		{
+			out[0] = 0;
+			out[1] = addr;
+		}
+		if (bytes != null)
+		{
+			store(addr, bytes, 0, 4);
+		}
+		return IPv4;
+	}
+
+	/**
+	 * Store the lower len bytes of the given value in network order.
+	 */
+	private static void store(long value, byte[] bytes, int offset, int len)
+	{
+		for (int i = offset + len - 1; i >= offset; i--)
+		{
+			bytes[i] = (byte)value;
+			value >>>= 8;
+		}
+	}
+
+	/**
+	 * Parse a dotted-decimal IPv4 address.
+	 *
+	 * @return the address, -1 if invalid
+	 */
+	private static long parseIPv4(CharSequence str, int start, int end)
+	{
+		long addr = 0;
+		int octets = 0, i = start;
+
+		while (true)
+		{
+			int value = 0, digits = 0;
+			while (i < end)
+			{
+				char c = str.charAt(i);
+				if (c < '0' || c > '9')
+				{
+					break;
+				}
+				if (digits > 0 && value == 0)
+				{	/* no leading zeros, like inet_pton() */
+					return -1;
+				}
+				value = value * 10 + (c - '0');
+				if (value > 255)
+				{
+					return -1;
+				}
+				digits++;
+				i++;
+			}
+			if (digits == 0)
+			{
+				return -1;
+			}
+			addr = (addr << 8) | value;
+			if (++octets == 4)
+			{
+				return i == end ? addr : -1;
+			}
+			if (i == end || str.charAt(i) != '.')
+			{
+				return -1;
+			}
+			i++;
+		}
+	}
+
+	private static int hexValue(char c)
+	{
+		if (c >= '0' && c <= '9')
+		{
+			return c - '0';
+		}
+		if (c >= 'a' && c <= 'f')
+		{
+			return c - 'a' + 10;
+		}
+		if (c >= 'A' && c <= 'F')
+		{
+			return c - 'A' + 10;
+		}
+		return -1;
+	}
+
+	private static boolean parseIPv6(CharSequence str, int start, int end, long[] out, byte[] bytes)
+	{
+		/* groups are shifted in from the right, the ones following a "::" are moved to the end
+		 * of the address afterwards */
+		long high = 0, low = 0;
+		int groups = 0, gap = -1, i = start;
+
+		if (end - start >= 2 && str.charAt(i) == ':' && str.charAt(i + 1) == ':')
+		{
+			gap = 0;
+			i += 2;
+		}
+		while (i < end)
+		{
+			int groupStart = i, value = 0, digits = 0, hex;
+			while (i < end && (hex = hexValue(str.charAt(i))) >= 0)
+			{
+				if (++digits > 4)
+				{
+					return false;
+				}
+				value = (value << 4) | hex;
+				i++;
+			}
+			if (i < end && str.charAt(i) == '.')
+			{	/* embedded IPv4 address, which has to be at the end */
+				long addr = parseIPv4(str, groupStart, end);
+				if (addr < 0 || groups > 6)
+				{
+					return false;
+				}
+				high = (high << 32) | (low >>> 32);
+				low = (low << 32) | addr;
+				groups += 2;
+				break;
+			}
+			if (digits == 0 || groups == 8)
+			{
+				return false;
+			}
+			high = (high << 16) | (low >>> 48);
+			low = (low << 16) | value;
+			groups++;
+			if (i == end)
+			{
+				break;
+			}
+			if (str.charAt(i++) != ':' || i == end)
+			{
+				return false;
+			}
+			if (str.charAt(i) == ':')
+			{
+				if (gap >= 0)
+				{
+					return false;
+				}
+				gap = groups;
+				i++;
+			}
+		}
+		if (gap < 0)
+		{
+			if (groups != 8)
+			{
+				return false;
+			}
+		}
+		else
+		{
+			if (groups > 7)
+			{
+				return false;
+			}
+			/* move the groups before the gap to the front */
+			int tail = 16 * (groups - gap), head = 128 - 16 * gap;
+			long headHigh = shiftRightHigh(high, tail), headLow = shiftRightLow(high, low, tail);
+			high = shiftLeftHigh(headHigh, headLow, head) | (high & IPRange.lowOnes(tail - 64));
+			low = shiftLeftLow(headLow, head) | (low & IPRange.lowOnes(tail));
+		}
+		if (out != null)
+		{
+			out[0] = high;
+			out[1] = low;
+		}
+		if (bytes != null)
+		{
+			store(high, bytes, 0, 8);
+			store(low, bytes, 8, 8);
+		}
+		return true;
+	}
+
+	private static long shiftLeftHigh(long high, long low, int n)
+	{
+		if (n >= 128)
+		{
+			return 0;
+		}
+		if (n >= 64)
+		{
+			return low << (n - 64);
+		}
+		return n == 0 ? high : (high << n) | (low >>> (64 - n));
+	}
+
+	private static long shiftLeftLow(long low, int n)
+	{
+		return n >= 64 ? 0 : low << n;
+	}
+
+	private static long shiftRightHigh(long high, int n)
+	{
+		return n >= 64 ? 0 : high >>> n;
+	}
+
+	private static long shiftRightLow(long high, long low, int n)
+	{
+		if (n >= 128)
+		{
+			return 0;
+		}
+		if (n >= 64)
+		{
+			return high >>> (n - 64);
+		}
+		return n == 0 ? low : (low >>> n) | (high << (64 - n));
+	}
+}
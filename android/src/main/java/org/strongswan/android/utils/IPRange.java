@@ -18,8 +18,6 @@ package org.strongswan.android.utils;
 import java.net.InetAddress;
 import java.net.UnknownHostException;
 import java.util.ArrayList;
-import java.util.Arrays;
-import java.util.Collections;
 import java.util.List;
 
 import androidx.annotation.NonNull;
@@ -27,53 +25,67 @@ import androidx.annotation.NonNull;
 /**
  * Class that represents a range of IP addresses. This range could be a proper subnet, but that's
  * not necessarily the case (see {@code getPrefix} and {@code toSubnets}).
+ * <p>
+ * Addresses are stored as unsigned 128-bit integers split into two longs.  IPv4 addresses only use
+ * the lower 32 bits of the low part (the high part is always 0), so all the arithmetic below can be
+ * done with a few bit operations instead of looping over address bytes.
  */
 public class IPRange implements Comparable<IPRange>
 {
-	private final byte[] mBitmask = { (byte)0x80, 0x40, 0x20, 0x10, 0x08, 0x04, 0x02, 0x01 };
-	private byte[] mFrom;
-	private byte[] mTo;
-	private Integer mPrefix;
+	private boolean mIPv6;
+	private long mFromHigh, mFromLow;
+	private long mToHigh, mToLow;
+	/* prefix length if this is a proper subnet, -1 otherwise */
+	private int mPrefix;
 
 	/**
 	 * Determine if the range is a proper subnet and, if so, what the network prefix is.
 	 */
 	private void determinePrefix()
 	{
-		boolean matching = true;
+		long diffHigh = mFromHigh ^ mToHigh, diffLow = mFromLow ^ mToLow;
 
-		mPrefix = mFrom.length * 8;
-		for (int i = 0; i < mFrom.length; i++)
+		mPrefix = -1;
+		/* the differing bits have to be the host bits, i.e. all trailing ones... */
+		if (diffHigh == 0)
 		{
-			for (int bit = 0; bit < 8; bit++)
+			if ((diffLow & (diffLow + 1)) != 0)
 			{
-				if (matching)
-				{
-					if ((mFrom[i] & mBitmask[bit]) != (mTo[i] & mBitmask[bit]))
-					{
-						mPrefix = (i * 8) + bit;
-						matching = false;
-					}
-				}
-				else
-				{
-					if ((mFrom[i] & mBitmask[bit]) != 0 || (mTo[i] & mBitmask[bit]) == 0)
-					{
-						mPrefix = null;
-						return;
-					}
-				}
+				return;
 			}
 		}
+		else if (diffLow != -1L || (diffHigh & (diffHigh + 1)) != 0)
+		{
+			return;
+		}
+		/* ...which have to be all zeros in the first and all ones in the last address */
+		if ((mFromHigh & diffHigh) != 0 || (mFromLow & diffLow) != 0)
+		{
+			return;
+		}
+		mPrefix = getBits() - Long.bitCount(diffHigh) - Long.bitCount(diffLow);
 	}
 
-	private IPRange(byte[] from, byte[] to)
+	IPRange(boolean ipv6, long fromHigh, long fromLow, long toHigh, long toLow)
 	{
-		mFrom = from;
-		mTo = to;
+		mIPv6 = ipv6;
+		mFromHigh = fromHigh;
+		mFromLow = fromLow;
+		mToHigh = toHigh;
+		mToLow = toLow;
 		determinePrefix();
 	}
 
+	IPRange(boolean ipv6, long fromHigh, long fromLow, long toHigh, long toLow, int prefix)
+	{
+		mIPv6 = ipv6;
+		mFromHigh = fromHigh;
+		mFromLow = fromLow;
+		mToHigh = toHigh;
+		mToLow = toLow;
+		mPrefix = prefix;
+	}
+
 	public IPRange(String from, String to) throws UnknownHostException
 	{
 		this(Utils.parseInetAddress(from), Utils.parseInetAddress(to));
@@ -91,32 +103,72 @@ public class IPRange implements Comparable<IPRange>
 		{
 			throw new IllegalArgumentException("Invalid range");
 		}
-		if (compareAddr(fa, ta) < 0)
+		long faHigh = addressHigh(fa), faLow = addressLow(fa);
+		long taHigh = addressHigh(ta), taLow = addressLow(ta);
+
+		mIPv6 = fa.length == 16;
+		if (compareAddr(faHigh, faLow, taHigh, taLow) < 0)
 		{
-			mFrom = fa;
-			mTo = ta;
+			mFromHigh = faHigh;
+			mFromLow = faLow;
+			mToHigh = taHigh;
+			mToLow = taLow;
 		}
 		else
 		{
-			mTo = fa;
-			mFrom = ta;
+			mFromHigh = taHigh;
+			mFromLow = taLow;
+			mToHigh = faHigh;
+			mToLow = faLow;
 		}
 		determinePrefix();
 	}
 
 	public IPRange(String base, int prefix) throws UnknownHostException
-	{
-		this(Utils.parseInetAddress(base), prefix);
+	{	/* parse directly, without creating an InetAddress first */
+		long[] addr = new long[2];
+		int family = base != null ? IPAddressParser.parse(base, 0, base.length(), addr)
+								  : IPAddressParser.INVALID;
+		if (family == IPAddressParser.INVALID)
+		{
+			throw new UnknownHostException(base);
+		}
+		/* like InetAddress, treat IPv4-mapped addresses as IPv4 addresses */
+		mIPv6 = family == IPAddressParser.IPv6 && !IPAddressParser.isIPv4Mapped(addr[0], addr[1]);
+		if (prefix < 0 || prefix > getBits())
+		{
+			throw new IllegalArgumentException("Invalid prefix");
+		}
+		initializeFromCIDR(mIPv6 ? addr[0] : 0, mIPv6 ? addr[1] : addr[1] & 0xffffffffL, prefix);
 	}
 
 	public IPRange(InetAddress base, int prefix)
 	{
-		this(base.getAddress(), prefix);
+		initializeFromCIDR(base.getAddress(), prefix);
 	}
 
-	private IPRange(byte[] from, int prefix)
+	/**
+	 * Create a subnet from an address in network order stored at the given offset, e.g. if
+	 * multiple addresses are packed into a single array.
+	 *
+	 * @param addresses array containing the address
+	 * @param offset    offset of the address in the array
+	 * @param length    length of the address (4 or 16 bytes)
+	 * @param prefix    prefix length
+	 */
+	public IPRange(byte[] addresses, int offset, int length, int prefix)
 	{
-		initializeFromCIDR(from, prefix);
+		if ((length != 4 && length != 16) || offset < 0 || offset > addresses.length - length)
+		{
+			throw new IllegalArgumentException("Invalid address");
+		}
+		if (prefix < 0 || prefix > length * 8)
+		{
+			throw new IllegalArgumentException("Invalid prefix");
+		}
+		mIPv6 = length == 16;
+		initializeFromCIDR(mIPv6 ? readLong(addresses, offset, 8) : 0,
+						   mIPv6 ? readLong(addresses, offset + 8, 8) : readLong(addresses, offset, 4), prefix);
 	}
 
 	private void initializeFromCIDR(byte[] from, int prefix)
@@ -129,19 +181,19 @@ public class IPRange implements Comparable<IPRange>
 		{
 			throw new IllegalArgumentException("Invalid prefix");
 		}
-		byte[] to = from.clone();
-		byte mask = (byte)(0xff << (8 - prefix % 8));
-		int i = prefix / 8;
+		mIPv6 = from.length == 16;
+		initializeFromCIDR(addressHigh(from), addressLow(from), prefix);
+	}
 
-		if (i < from.length)
-		{
-			from[i] = (byte)(from[i] & mask);
-			to[i] = (byte)(to[i] | ~mask);
-			Arrays.fill(from, i+1, from.length, (byte)0);
-			Arrays.fill(to, i+1, to.length, (byte)0xff);
-		}
-		mFrom = from;
-		mTo = to;
+	private void initializeFromCIDR(long high, long low, int prefix)
+	{
+		int host = getBits() - prefix;
+		long hostHigh = lowOnes(host - 64), hostLow = lowOnes(host);
+
+		mFromHigh = high & ~hostHigh;
+		mFromLow = low & ~hostLow;
+		mToHigh = high | hostHigh;
+		mToLow = low | hostLow;
 		mPrefix = prefix;
 	}
 
@@ -180,7 +232,7 @@ public class IPRange implements Comparable<IPRange>
 	{
 		try
 		{
-			return InetAddress.getByAddress(mFrom);
+			return InetAddress.getByAddress(toBytes(mIPv6, mFromHigh, mFromLow));
 		}
 		catch (UnknownHostException ignored)
 		{
@@ -195,7 +247,7 @@ public class IPRange implements Comparable<IPRange>
 	{
 		try
 		{
-			return InetAddress.getByAddress(mTo);
+			return InetAddress.getByAddress(toBytes(mIPv6, mToHigh, mToLow));
 		}
 		catch (UnknownHostException ignored)
 		{
@@ -207,17 +259,60 @@ public class IPRange implements Comparable<IPRange>
 	 * If this range is a proper subnet returns its prefix, otherwise returns null.
 	 */
 	public Integer getPrefix()
+	{	/* boxed values for all valid prefixes are cached by Integer.valueOf() */
+		return mPrefix < 0 ? null : mPrefix;
+	}
+
+	/**
+	 * Whether this is a range of IPv6 addresses.
+	 */
+	public boolean isIPv6()
 	{
-		return mPrefix;
+		return mIPv6;
+	}
+
+	/**
+	 * Raw first and last address of this range (see class description for the encoding).
+	 */
+	long getFromHigh()
+	{
+		return mFromHigh;
+	}
+
+	long getFromLow()
+	{
+		return mFromLow;
+	}
+
+	long getToHigh()
+	{
+		return mToHigh;
+	}
+
+	long getToLow()
+	{
+		return mToLow;
+	}
+
+	/**
+	 * Number of bits in addresses of this range's family.
+	 */
+	int getBits()
+	{
+		return mIPv6 ? 128 : 32;
 	}
 
 	@Override
 	public int compareTo(@NonNull IPRange other)
 	{
-		int cmp = compareAddr(mFrom, other.mFrom);
+		if (mIPv6 != other.mIPv6)
+		{	/* IPv4 ranges first */
+			return mIPv6 ? 1 : -1;
+		}
+		int cmp = compareAddr(mFromHigh, mFromLow, other.mFromHigh, other.mFromLow);
 		if (cmp == 0)
 		{	/* smaller ranges first */
-			cmp = compareAddr(mTo, other.mTo);
+			cmp = compareAddr(mToHigh, mToLow, other.mToHigh, other.mToLow);
 		}
 		return cmp;
 	}
@@ -232,85 +327,127 @@ public class IPRange implements Comparable<IPRange>
 		return this == o || compareTo((IPRange)o) == 0;
 	}
 
+	@Override
+	public int hashCode()
+	{
+		long hash = mFromHigh * 31 + mFromLow;
+		hash = hash * 31 + mToHigh;
+		hash = hash * 31 + mToLow;
+		return (int)(hash ^ (hash >>> 32)) + (mIPv6 ? 1 : 0);
+	}
+
 	@Override
 	public String toString()
 	{
-		try
-		{
-			if (mPrefix != null)
-			{
-				return InetAddress.getByAddress(mFrom).getHostAddress() + "/" + mPrefix;
-			}
-			return InetAddress.getByAddress(mFrom).getHostAddress() + "-" +
-				   InetAddress.getByAddress(mTo).getHostAddress();
-		}
-		catch (UnknownHostException ignored)
+		InetAddress from = getFrom();
+		if (mPrefix >= 0)
 		{
-			return super.toString();
+			return from.getHostAddress() + "/" + mPrefix;
 		}
+		return from.getHostAddress() + "-" + getTo().getHostAddress();
 	}
 
-	private int compareAddr(byte a[], byte b[])
+	/**
+	 * Compare two addresses given as unsigned 128-bit integers.
+	 */
+	static int compareAddr(long aHigh, long aLow, long bHigh, long bLow)
 	{
-		if (a.length != b.length)
+		if (aHigh != bHigh)
 		{
-			return (a.length < b.length) ? -1 : 1;
+			return (aHigh ^ Long.MIN_VALUE) < (bHigh ^ Long.MIN_VALUE) ? -1 : 1;
 		}
-		for (int i = 0; i < a.length; i++)
+		if (aLow != bLow)
 		{
-			if (a[i] != b[i])
-			{
-				if (((int)a[i] & 0xff) < ((int)b[i] & 0xff))
-				{
-					return -1;
-				}
-				else
-				{
-					return 1;
-				}
-			}
+			return (aLow ^ Long.MIN_VALUE) < (bLow ^ Long.MIN_VALUE) ? -1 : 1;
 		}
 		return 0;
 	}
 
 	/**
-	 * Check if this range fully contains the given range.
+	 * Returns a long with the lowest n bits set (n may be negative or larger than 64).
 	 */
-	public boolean contains(IPRange range)
+	static long lowOnes(int n)
 	{
-		return compareAddr(mFrom, range.mFrom) <= 0 && compareAddr(range.mTo, mTo) <= 0;
+		if (n <= 0)
+		{
+			return 0;
+		}
+		return n >= 64 ? -1L : -1L >>> (64 - n);
 	}
 
 	/**
-	 * Check if this and the given range overlap.
+	 * High part of the address that precedes/follows the given address. The low part is simply
+	 * low - 1 and low + 1, respectively.
 	 */
-	public boolean overlaps(IPRange range)
+	static long decHigh(long high, long low)
 	{
-		return !(compareAddr(mTo, range.mFrom) < 0 || compareAddr(range.mTo, mFrom) < 0);
+		return low == 0 ? high - 1 : high;
 	}
 
-	private byte[] dec(byte[] addr)
+	static long incHigh(long high, long low)
 	{
-		for (int i = addr.length - 1; i >= 0; i--)
-		{
-			if (--addr[i] != (byte)0xff)
-			{
-				break;
-			}
-		}
-		return addr;
+		return low == -1L ? high + 1 : high;
 	}
 
-	private byte[] inc(byte[] addr)
+	/**
+	 * Determine the prefix of the largest subnet that starts at the given address and does not
+	 * extend beyond the given end address.
+	 */
+	static int largestSubnet(int bits, long fromHigh, long fromLow, long toHigh, long toLow)
 	{
-		for (int i = addr.length - 1; i >= 0; i--)
+		int aligned, fits;
+
+		/* the subnet can't be larger than the alignment of the start address */
+		if (fromLow != 0)
 		{
-			if (++addr[i] != 0)
-			{
-				break;
-			}
+			aligned = Long.numberOfTrailingZeros(fromLow);
 		}
-		return addr;
+		else if (fromHigh != 0)
+		{
+			aligned = 64 + Long.numberOfTrailingZeros(fromHigh);
+		}
+		else
+		{
+			aligned = bits;
+		}
+		/* nor larger than the number of addresses (to - from + 1) */
+		long sizeLow = toLow - fromLow;
+		long sizeHigh = toHigh - fromHigh - (compareAddr(0, toLow, 0, fromLow) < 0 ? 1 : 0);
+		sizeHigh = incHigh(sizeHigh, sizeLow);
+		sizeLow++;
+		if (sizeHigh != 0)
+		{
+			fits = 127 - Long.numberOfLeadingZeros(sizeHigh);
+		}
+		else if (sizeLow != 0)
+		{
+			fits = 63 - Long.numberOfLeadingZeros(sizeLow);
+		}
+		else
+		{	/* the whole address space */
+			fits = bits;
+		}
+		return bits - Math.min(Math.min(aligned, fits), bits);
+	}
+
+	/**
+	 * Check if this range fully contains the given range.
+	 */
+	public boolean contains(IPRange range)
+	{
+		return mIPv6 == range.mIPv6 &&
+			   compareAddr(mFromHigh, mFromLow, range.mFromHigh, range.mFromLow) <= 0 &&
+			   compareAddr(range.mToHigh, range.mToLow, mToHigh, mToLow) <= 0;
+	}
+
+	/**
+	 * Check if this and the given range overlap.
+	 */
+	public boolean overlaps(IPRange range)
+	{
+		return mIPv6 == range.mIPv6 &&
+			   !(compareAddr(mToHigh, mToLow, range.mFromHigh, range.mFromLow) < 0 ||
+				 compareAddr(range.mToHigh, range.mToLow, mFromHigh, mFromLow) < 0);
 	}
 
 	/**
@@ -331,20 +468,28 @@ public class IPRange implements Comparable<IPRange>
 		{	/* we are not completely removed, so none of these cases applies:
 			 * | this  | or  | this  |   or   | this  |
 		     * | range |     | range   |    |   range | */
-			if (compareAddr(mFrom, range.mFrom) < 0 && compareAddr(range.mTo, mTo) < 0)
+			boolean keepFrom = compareAddr(mFromHigh, mFromLow, range.mFromHigh, range.mFromLow) < 0;
+			boolean keepTo = compareAddr(range.mToHigh, range.mToLow, mToHigh, mToLow) < 0;
+			long beforeHigh = decHigh(range.mFromHigh, range.mFromLow), beforeLow = range.mFromLow - 1;
+			long afterHigh = incHigh(range.mToHigh, range.mToLow), afterLow = range.mToLow + 1;
+
+			if (keepFrom && keepTo)
 			{	/* the removed range is completely within our boundaries:
 				 * |    this    |
 				 *   | range |   */
-				list.add(new IPRange(mFrom, dec(range.mFrom.clone())));
-				list.add(new IPRange(inc(range.mTo.clone()), mTo));
+				list.add(new IPRange(mIPv6, mFromHigh, mFromLow, beforeHigh, beforeLow));
+				list.add(new IPRange(mIPv6, afterHigh, afterLow, mToHigh, mToLow));
 			}
-			else
+			else if (keepFrom)
 			{	/* one end is within our boundaries the other at or outside it:
-			     * | this     | or    | this     | or | this    |  or  | this    |
-			     * | range |       | range |            | range |           | range | */
-				byte[] from = compareAddr(mFrom, range.mFrom) < 0 ? mFrom : inc(range.mTo.clone());
-				byte[] to = compareAddr(mTo, range.mTo) > 0 ? mTo : dec(range.mFrom.clone());
-				list.add(new IPRange(from, to));
+			     * | this     | or    | this     |
+			     *       | range |       | range | */
+				list.add(new IPRange(mIPv6, mFromHigh, mFromLow, beforeHigh, beforeLow));
+			}
+			else
+			{	/* | this    |  or  | this    |
+			     * | range |           | range | */
+				list.add(new IPRange(mIPv6, afterHigh, afterLow, mToHigh, mToLow));
 			}
 		}
 		return list;
@@ -352,13 +497,15 @@ public class IPRange implements Comparable<IPRange>
 
 	private boolean adjacent(IPRange range)
 	{
-		if (compareAddr(mTo, range.mFrom) < 0)
+		if (mIPv6 != range.mIPv6)
 		{
-			byte[] to = inc(mTo.clone());
-			return compareAddr(to, range.mFrom) == 0;
+			return false;
+		}
+		if (compareAddr(mToHigh, mToLow, range.mFromHigh, range.mFromLow) < 0)
+		{
+			return incHigh(mToHigh, mToLow) == range.mFromHigh && mToLow + 1 == range.mFromLow;
 		}
-		byte[] from = dec(mFrom.clone());
-		return compareAddr(from, range.mTo) == 0;
+		return decHigh(mFromHigh, mFromLow) == range.mToHigh && mFromLow - 1 == range.mToLow;
 	}
 
 	/**
@@ -381,9 +528,9 @@ public class IPRange implements Comparable<IPRange>
 		{
 			return null;
 		}
-		byte[] from = compareAddr(mFrom, range.mFrom) < 0 ? mFrom : range.mFrom;
-		byte[] to = compareAddr(mTo, range.mTo) > 0 ? mTo : range.mTo;
-		return new IPRange(from, to);
+		IPRange from = compareAddr(mFromHigh, mFromLow, range.mFromHigh, range.mFromLow) < 0 ? this : range;
+		IPRange to = compareAddr(mToHigh, mToLow, range.mToHigh, range.mToLow) > 0 ? this : range;
+		return new IPRange(mIPv6, from.mFromHigh, from.mFromLow, to.mToHigh, to.mToLow);
 	}
 
 	/**
@@ -392,118 +539,69 @@ public class IPRange implements Comparable<IPRange>
 	public List<IPRange> toSubnets()
 	{
 		ArrayList<IPRange> list = new ArrayList<>();
-		if (mPrefix != null)
+		if (mPrefix >= 0)
 		{
 			list.add(this);
+			return list;
 		}
-		else
+		/* starting at the first address, repeatedly cut off the largest aligned subnet that does
+		 * not extend beyond the last address.  this yields the minimal set of subnets in order */
+		int bits = getBits();
+		long fromHigh = mFromHigh, fromLow = mFromLow;
+		while (true)
 		{
-			int i = 0, bit = 0, prefix, netmask, common_byte, common_bit;
-			int from_cur, from_prev = 0, to_cur, to_prev = 1;
-			boolean from_full = true, to_full = true;
-
-			byte[] from = mFrom.clone();
-			byte[] to = mTo.clone();
+			int prefix = largestSubnet(bits, fromHigh, fromLow, mToHigh, mToLow);
+			long toHigh = fromHigh | lowOnes(bits - prefix - 64);
+			long toLow = fromLow | lowOnes(bits - prefix);
 
-			/* find a common prefix */
-			while (i < from.length && (from[i] & mBitmask[bit]) == (to[i] & mBitmask[bit]))
+			list.add(new IPRange(mIPv6, fromHigh, fromLow, toHigh, toLow, prefix));
+			if (toHigh == mToHigh && toLow == mToLow)
 			{
-				if (++bit == 8)
-				{
-					bit = 0;
-					i++;
-				}
-			}
-			prefix = i * 8 + bit;
-
-			/* at this point we know that the addresses are either equal, or that the
-			 * current bits in the 'from' and 'to' addresses are 0 and 1, respectively.
-			 * we now look at the rest of the bits as two binary trees (0=left, 1=right)
-			 * where 'from' and 'to' are both leaf nodes.  all leaf nodes between these
-			 * nodes are addresses contained in the range.  to collect them as subnets
-			 * we follow the trees from both leaf nodes to their root node and record
-			 * all complete subtrees (right for from, left for to) we come across as
-			 * subnets.  in that process host bits are zeroed out.  if both addresses
-			 * are equal we won't enter the loop below.
-			 *      0_____|_____1       for the 'from' address we assume we start on a
-			 *   0__|__ 1    0__|__1    left subtree (0) and follow the left edges until
-			 *  _|_   _|_   _|_   _|_   we reach the root of this subtree, which is
-			 * |   | |   | |   | |   |  either the root of this whole 'from'-subtree
-			 * 0   1 0   1 0   1 0   1  (causing us to leave the loop) or the root node
-			 * of the right subtree (1) of another node (which actually could be the
-			 * leaf node we start from).  that whole subtree gets recorded as subnet.
-			 * next we follow the right edges to the root of that subtree which again is
-			 * either the 'from'-root or the root node in the left subtree (0) of
-			 * another node.  the complete right subtree of that node is the next subnet
-			 * we record.  from there we assume that we are in that right subtree and
-			 * recursively follow right edges to its root.  for the 'to' address the
-			 * procedure is exactly the same but with left and right reversed.
-			 */
-			if (++bit == 8)
-			{
-				bit = 0;
-				i++;
-			}
-			common_byte = i;
-			common_bit = bit;
-			netmask = from.length * 8;
-			for (i = from.length - 1; i >= common_byte; i--)
-			{
-				int bit_min = (i == common_byte) ? common_bit : 0;
-				for (bit = 7; bit >= bit_min; bit--)
-				{
-					byte mask = mBitmask[bit];
-
-					from_cur = from[i] & mask;
-					if (from_prev == 0 && from_cur != 0)
-					{	/* 0 -> 1: subnet is the whole current (right) subtree */
-						list.add(new IPRange(from.clone(), netmask));
-						from_full = false;
-					}
-					else if (from_prev != 0 && from_cur == 0)
-					{	/* 1 -> 0: invert bit to switch to right subtree and add it */
-						from[i] ^= mask;
-						list.add(new IPRange(from.clone(), netmask));
-						from_cur = 1;
-					}
-					/* clear the current bit */
-					from[i] &= ~mask;
-					from_prev = from_cur;
-
-					to_cur = to[i] & mask;
-					if (to_prev != 0 && to_cur == 0)
-					{	/* 1 -> 0: subnet is the whole current (left) subtree */
-						list.add(new IPRange(to.clone(), netmask));
-						to_full = false;
-					}
-					else if (to_prev == 0 && to_cur != 0)
-					{	/* 0 -> 1: invert bit to switch to left subtree and add it */
-						to[i] ^= mask;
-						list.add(new IPRange(to.clone(), netmask));
-						to_cur = 0;
-					}
-					/* clear the current bit */
-					to[i] &= ~mask;
-					to_prev = to_cur;
-					netmask--;
-				}
-			}
-
-			if (from_full && to_full)
-			{	/* full subnet (from=to or from=0.. and to=1.. after common prefix) - not reachable
-				 * due to the shortcut at the top */
-				list.add(new IPRange(from.clone(), prefix));
-			}
-			else if (from_full)
-			{	/* full from subnet (from=0.. after prefix) */
-				list.add(new IPRange(from.clone(), prefix + 1));
-			}
-			else if (to_full)
-			{	/* full to subnet (to=1.. after prefix) */
-				list.add(new IPRange(to.clone(), prefix + 1));
+				break;
 			}
+			fromHigh = incHigh(toHigh, toLow);
+			fromLow = toLow + 1;
 		}
-		Collections.sort(list);
 		return list;
 	}
+
+	/**
+	 * Upper 64 bits of the given IPv6 address, 0 for IPv4 addresses.
+	 */
+	static long addressHigh(byte[] addr)
+	{
+		return addr.length == 16 ? readLong(addr, 0, 8) : 0;
+	}
+
+	/**
+	 * Lower 64 bits of the given IPv6 address or the complete IPv4 address.
+	 */
+	static long addressLow(byte[] addr)
+	{
+		return addr.length == 16 ? readLong(addr, 8, 8) : readLong(addr, 0, 4);
+	}
+
+	private static long readLong(byte[] addr, int offset, int len)
+	{
+		long value = 0;
+		for (int i = offset; i < offset + len; i++)
+		{
+			value = (value << 8) | (addr[i] & 0xff);
+		}
+		return value;
+	}
+
+	/**
+	 * Encode the given address in network order.
+	 */
+	static byte[] toBytes(boolean ipv6, long high, long low)
+	{
+		byte[] addr = new byte[ipv6 ? 16 : 4];
+		for (int i = addr.length - 1; i >= 0; i--)
+		{
+			addr[i] = (byte)low;
+			low = (i == 8) ? high : low >>> 8;
+		}
+		return addr;
+	}
 }
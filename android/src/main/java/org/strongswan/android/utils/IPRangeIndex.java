@@ -0,0 +1,163 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+/**
+ * Immutable index over the ranges of an {@link IPRangeSet} that allows determining which range,
+ * if any, contains a given address.  The ranges are stored in sorted primitive arrays and looked
+ * up via binary search, so lookups don't allocate anything.
+ * <p>
+ * Lookups return the position of the matching range, IPv4 ranges come first, i.e. positions are
+ * the same as when iterating over the set the index was built from.
+ */
+public class IPRangeIndex
+{
+	private final IPRange[] mRanges;
+	private final int mCountIPv4;
+	private final long[] mFromIPv4, mToIPv4;
+	private final long[] mFromHighIPv6, mFromLowIPv6, mToHighIPv6, mToLowIPv6;
+
+	/**
+	 * Build an index from the current ranges in the given set.  Later changes to the set are not
+	 * reflected in the index.
+	 */
+	public IPRangeIndex(IPRangeSet set)
+	{
+		mRanges = new IPRange[set.size()];
+		int count = 0, countIPv4 = 0;
+		for (IPRange range : set)
+		{
+			mRanges[count++] = range;
+			if (!range.isIPv6())
+			{
+				countIPv4++;
+			}
+		}
+		mCountIPv4 = countIPv4;
+		mFromIPv4 = new long[countIPv4];
+		mToIPv4 = new long[countIPv4];
+		for (int i = 0; i < countIPv4; i++)
+		{
+			mFromIPv4[i] = mRanges[i].getFromLow();
+			mToIPv4[i] = mRanges[i].getToLow();
+		}
+		int countIPv6 = count - countIPv4;
+		mFromHighIPv6 = new long[countIPv6];
+		mFromLowIPv6 = new long[countIPv6];
+		mToHighIPv6 = new long[countIPv6];
+		mToLowIPv6 = new long[countIPv6];
+		for (int i = 0; i < countIPv6; i++)
+		{
+			IPRange range = mRanges[countIPv4 + i];
+			mFromHighIPv6[i] = range.getFromHigh();
+			mFromLowIPv6[i] = range.getFromLow();
+			mToHighIPv6[i] = range.getToHigh();
+			mToLowIPv6[i] = range.getToLow();
+		}
+	}
+
+	/**
+	 * Look up the given IPv4 address (as unsigned 32-bit value in the lower bits).
+	 *
+	 * @param address IPv4 address
+	 * @return position of the range containing the address, -1 if none does
+	 */
+	public int lookup(long address)
+	{
+		int low = 0, high = mCountIPv4 - 1;
+		/* find the last range that starts at or before the address */
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if (mFromIPv4[mid] <= address)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+		if (high >= 0 && address <= mToIPv4[high])
+		{
+			return high;
+		}
+		return -1;
+	}
+
+	/**
+	 * Look up the given IPv6 address (as unsigned 128-bit value split in two).
+	 *
+	 * @param addressHigh upper 64 bits of the IPv6 address
+	 * @param addressLow lower 64 bits of the IPv6 address
+	 * @return position of the range containing the address, -1 if none does
+	 */
+	public int lookup(long addressHigh, long addressLow)
+	{
+		int low = 0, high = mFromHighIPv6.length - 1;
+		while (low <= high)
+		{
+			int mid = (low + high) >>> 1;
+			if (IPRange.compareAddr(mFromHighIPv6[mid], mFromLowIPv6[mid], addressHigh, addressLow) <= 0)
+			{
+				low = mid + 1;
+			}
+			else
+			{
+				high = mid - 1;
+			}
+		}
+		if (high >= 0 && IPRange.compareAddr(addressHigh, addressLow, mToHighIPv6[high], mToLowIPv6[high]) <= 0)
+		{
+			return mCountIPv4 + high;
+		}
+		return -1;
+	}
+
+	/**
+	 * Look up the given address in network order (4 bytes for IPv4, 16 for IPv6).
+	 *
+	 * @param address IP address
+	 * @return position of the range containing the address, -1 if none does
+	 */
+	public int lookup(byte[] address)
+	{
+		if (address.length == 16)
+		{
+			return lookup(IPRange.addressHigh(address), IPRange.addressLow(address));
+		}
+		else if (address.length == 4)
+		{
+			return lookup(IPRange.addressLow(address));
+		}
+		throw new IllegalArgumentException("Invalid address");
+	}
+
+	/**
+	 * Get the range at the given position, as returned by one of the lookup methods.
+	 */
+	public IPRange get(int position)
+	{
+		return mRanges[position];
+	}
+
+	/**
+	 * Returns the number of indexed ranges.
+	 */
+	public int size()
+	{
+		return mRanges.length;
+	}
+}
@@ -0,0 +1,369 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Collects large numbers of ranges in CIDR or range notation into primitive arrays, which are
+ * then sorted and merged in a single pass to create an {@link IPRangeSet}.
+ */
+class IPRangeLoader
+{
+	/* longest token we accept, two full IPv6 addresses with embedded IPv4 plus separator */
+	private static final int MAX_TOKEN = 2 * 45 + 1;
+
+	/* IPv4 ranges are stored as from << 32 | to (with the sign bit flipped so the longs sort
+	 * like unsigned values), IPv6 ranges as four consecutive longs (from high/low, to high/low) */
+	private long[] mIPv4 = new long[256];
+	private long[] mIPv6 = new long[64];
+	private int mCountIPv4, mCountIPv6;
+	private final long[] mFrom = new long[2];
+	private final long[] mTo = new long[2];
+
+	/**
+	 * Add all whitespace separated ranges from the given characters.
+	 */
+	void add(CharSequence ranges)
+	{
+		int start = -1, len = ranges.length();
+		for (int i = 0; i < len; i++)
+		{
+			if (isSeparator(ranges.charAt(i)))
+			{
+				if (start >= 0)
+				{
+					addRange(ranges, start, i);
+					start = -1;
+				}
+			}
+			else if (start < 0)
+			{
+				start = i;
+			}
+		}
+		if (start >= 0)
+		{
+			addRange(ranges, start, len);
+		}
+	}
+
+	/**
+	 * Add all whitespace separated ranges read from the given reader.
+	 */
+	void add(Reader reader) throws IOException
+	{
+		char[] buf = new char[8192];
+		char[] token = new char[MAX_TOKEN];
+		CharBuffer tokenChars = CharBuffer.wrap(token);
+		int read, len = 0;
+
+		while ((read = reader.read(buf)) != -1)
+		{
+			for (int i = 0; i < read; i++)
+			{
+				char c = buf[i];
+				if (isSeparator(c))
+				{
+					if (len > 0)
+					{
+						addRange(tokenChars, 0, len);
+						len = 0;
+					}
+				}
+				else if (len == token.length)
+				{
+					throw new IllegalArgumentException("Invalid CIDR or range notation");
+				}
+				else
+				{
+					token[len++] = c;
+				}
+			}
+		}
+		if (len > 0)
+		{
+			addRange(tokenChars, 0, len);
+		}
+	}
+
+	/**
+	 * Add all whitespace separated ranges in the remaining ASCII encoded bytes of the given
+	 * buffer (the buffer's position is not changed).
+	 */
+	void add(ByteBuffer ranges)
+	{
+		add(new AsciiSequence(ranges, ranges.position(), ranges.remaining()));
+	}
+
+	static boolean isSeparator(char c)
+	{	/* same as \s in regular expressions */
+		return c == ' ' || c == '\t' || c == '\n' || c == '\r' || c == '\f' || c == 0x0b;
+	}
+
+	/**
+	 * Parse a single range in CIDR or range notation.
+	 */
+	private void addRange(CharSequence str, int start, int end)
+	{
+		int sep = start, family;
+		while (sep < end && str.charAt(sep) != '/' && str.charAt(sep) != '-')
+		{
+			sep++;
+		}
+		family = normalize(IPAddressParser.parse(str, start, sep, mFrom), mFrom);
+		if (family == IPAddressParser.INVALID)
+		{
+			throw invalid(str, start, end);
+		}
+		int bits = family == IPAddressParser.IPv6 ? 128 : 32;
+		if (sep < end && str.charAt(sep) == '-')
+		{
+			if (normalize(IPAddressParser.parse(str, sep + 1, end, mTo), mTo) != family)
+			{
+				throw invalid(str, start, end);
+			}
+			if (IPRange.compareAddr(mFrom[0], mFrom[1], mTo[0], mTo[1]) > 0)
+			{
+				long high = mFrom[0], low = mFrom[1];
+				mFrom[0] = mTo[0];
+				mFrom[1] = mTo[1];
+				mTo[0] = high;
+				mTo[1] = low;
+			}
+		}
+		else
+		{
+			int prefix = bits;
+			if (sep < end)
+			{
+				prefix = parsePrefix(str, sep + 1, end);
+				if (prefix < 0 || prefix > bits)
+				{
+					throw invalid(str, start, end);
+				}
+			}
+			long hostHigh = IPRange.lowOnes(bits - prefix - 64), hostLow = IPRange.lowOnes(bits - prefix);
+			mTo[0] = mFrom[0] | hostHigh;
+			mTo[1] = mFrom[1] | hostLow;
+			mFrom[0] &= ~hostHigh;
+			mFrom[1] &= ~hostLow;
+		}
+		if (family == IPAddressParser.IPv4)
+		{
+			if (mCountIPv4 == mIPv4.length)
+			{
+				mIPv4 = Arrays.copyOf(mIPv4, mIPv4.length * 2);
+			}
+			mIPv4[mCountIPv4++] = ((mFrom[1] << 32) | mTo[1]) ^ Long.MIN_VALUE;
+		}
+		else
+		{
+			if (mCountIPv6 * 4 == mIPv6.length)
+			{
+				mIPv6 = Arrays.copyOf(mIPv6, mIPv6.length * 2);
+			}
+			int i = mCountIPv6++ * 4;
+			mIPv6[i] = mFrom[0];
+			mIPv6[i+1] = mFrom[1];
+			mIPv6[i+2] = mTo[0];
+			mIPv6[i+3] = mTo[1];
+		}
+	}
+
+	/**
+	 * Like InetAddress and IPRange, treat IPv4-mapped addresses as IPv4 addresses.
+	 */
+	private static int normalize(int family, long[] addr)
+	{
+		if (family == IPAddressParser.IPv6 && IPAddressParser.isIPv4Mapped(addr[0], addr[1]))
+		{
+			addr[0] = 0;
+			addr[1] &= 0xffffffffL;
+			return IPAddressParser.IPv4;
+		}
+		return family;
+	}
+
+	private static int parsePrefix(CharSequence str, int start, int end)
+	{
+		if (start == end || end - start > 3)
+		{
+			return -1;
+		}
+		int prefix = 0;
+		for (int i = start; i < end; i++)
+		{
+			char c = str.charAt(i);
+			if (c < '0' || c > '9')
+			{
+				return -1;
+			}
+			prefix = prefix * 10 + (c - '0');
+		}
+		return prefix;
+	}
+
+	private static IllegalArgumentException invalid(CharSequence str, int start, int end)
+	{
+		return new IllegalArgumentException("Invalid CIDR or range notation: " +
+											str.subSequence(start, end));
+	}
+
+	/**
+	 * Sort and merge all collected ranges.
+	 */
+	IPRangeSet build()
+	{
+		ArrayList<IPRange> ranges = new ArrayList<>();
+
+		Arrays.sort(mIPv4, 0, mCountIPv4);
+		long from = 0, to = -1;
+		for (int i = 0; i < mCountIPv4; i++)
+		{
+			long range = mIPv4[i] ^ Long.MIN_VALUE;
+			long nextFrom = range >>> 32, nextTo = range & 0xffffffffL;
+			if (to >= 0 && nextFrom <= to + 1)
+			{
+				to = Math.max(to, nextTo);
+				continue;
+			}
+			if (to >= 0)
+			{
+				ranges.add(new IPRange(false, 0, from, 0, to));
+			}
+			from = nextFrom;
+			to = nextTo;
+		}
+		if (to >= 0)
+		{
+			ranges.add(new IPRange(false, 0, from, 0, to));
+		}
+
+		sortIPv6();
+		for (int i = 0; i < mCountIPv6 * 4; i += 4)
+		{
+			int last = i;
+			/* merge all following ranges that overlap or are adjacent */
+			long toHigh = mIPv6[i+2], toLow = mIPv6[i+3];
+			while (i + 4 < mCountIPv6 * 4)
+			{
+				long nextHigh = mIPv6[i+4], nextLow = mIPv6[i+5];
+				if (IPRange.compareAddr(nextHigh, nextLow, toHigh, toLow) > 0 &&
+					(IPRange.incHigh(toHigh, toLow) != nextHigh || toLow + 1 != nextLow))
+				{
+					break;
+				}
+				i += 4;
+				if (IPRange.compareAddr(mIPv6[i+2], mIPv6[i+3], toHigh, toLow) > 0)
+				{
+					toHigh = mIPv6[i+2];
+					toLow = mIPv6[i+3];
+				}
+			}
+			ranges.add(new IPRange(true, mIPv6[last], mIPv6[last+1], toHigh, toLow));
+		}
+		return IPRangeSet.fromSorted(ranges);
+	}
+
+	/**
+	 * Sort the IPv6 ranges by their start address (bottom-up merge sort on the raw array).
+	 */
+	private void sortIPv6()
+	{
+		int len = mCountIPv6 * 4;
+		long[] src = mIPv6, dst = new long[len];
+
+		for (int width = 4; width < len; width *= 2)
+		{
+			for (int left = 0; left < len; left += 2 * width)
+			{
+				int mid = Math.min(left + width, len), right = Math.min(left + 2 * width, len);
+				int a = left, b = mid, out = left;
+				while (a < mid && b < right)
+				{
+					if (IPRange.compareAddr(src[b], src[b+1], src[a], src[a+1]) < 0)
+					{
+						System.arraycopy(src, b, dst, out, 4);
+						b += 4;
+					}
+					else
+					{
+						System.arraycopy(src, a, dst, out, 4);
+						a += 4;
+					}
+					out += 4;
+				}
+				System.arraycopy(src, a, dst, out, mid - a);
+				out += mid - a;
+				System.arraycopy(src, b, dst, out, right - b);
+			}
+			long[] tmp = src;
+			src = dst;
+			dst = tmp;
+		}
+		mIPv6 = src;
+	}
+
+	/**
+	 * Character view of ASCII encoded bytes in a buffer.
+	 */
+	private static class AsciiSequence implements CharSequence
+	{
+		private final ByteBuffer mBuffer;
+		private final int mOffset, mLength;
+
+		AsciiSequence(ByteBuffer buffer, int offset, int length)
+		{
+			mBuffer = buffer;
+			mOffset = offset;
+			mLength = length;
+		}
+
+		@Override
+		public int length()
+		{
+			return mLength;
+		}
+
+		@Override
+		public char charAt(int index)
+		{
+			return (char)(mBuffer.get(mOffset + index) & 0xff);
+		}
+
+		@Override
+		public CharSequence subSequence(int start, int end)
+		{
+			return new AsciiSequence(mBuffer, mOffset + start, end - start);
+		}
+
+		@Override
+		public String toString()
+		{
+			StringBuilder sb = new StringBuilder(mLength);
+			for (int i = 0; i < mLength; i++)
+			{
+				sb.append(charAt(i));
+			}
+			return sb.toString();
+		}
+	}
+}
@@ -15,11 +15,20 @@
 
 package org.strongswan.android.utils;
 
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.ByteBuffer;
+import java.util.AbstractSet;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
 import java.util.Iterator;
 import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.SortedSet;
 import java.util.TreeSet;
+import java.util.zip.CRC32;
 
 /**
  * Class that represents a set of IP address ranges (not necessarily proper subnets) and allows
@@ -27,31 +36,194 @@ import java.util.TreeSet;
  */
 public class IPRangeSet implements Iterable<IPRange>
 {
+	private static final int ENCODING_MAGIC = 0x49505253; /* "IPRS" */
+	private static final int ENCODING_VERSION = 1;
+	private static final int ENCODING_HEADER = 16;
 	private TreeSet<IPRange> mRanges = new TreeSet<>();
 
 	/**
 	 * Parse the given string (space separated ranges in CIDR or range notation) and return the
 	 * resulting set or {@code null} if the string was invalid. An empty set is returned if the given string
-	 * is {@code null}.
+	 * is {@code null}, while an empty string or one that starts with whitespace is invalid.
 	 */
 	public static IPRangeSet fromString(String ranges)
 	{
-		IPRangeSet set = new IPRangeSet();
-		if (ranges != null)
+		if (ranges == null)
+		{
+			return new IPRangeSet();
+		}
+		if (ranges.isEmpty() || IPRangeLoader.isSeparator(ranges.charAt(0)))
+		{	/* an empty range precedes the separator when splitting the string */
+			return null;
+		}
+		try
+		{
+			return load(ranges);
+		}
+		catch (IllegalArgumentException unused)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Parse whitespace separated ranges in CIDR or range notation in bulk. The ranges are collected
+	 * in primitive arrays without creating any intermediate objects and are then sorted and merged
+	 * in a single pass, which is a lot faster than adding them individually.
+	 *
+	 * @param ranges characters to parse
+	 * @return the resulting set
+	 * @throws IllegalArgumentException if any of the ranges is invalid
+	 */
+	public static IPRangeSet load(CharSequence ranges)
+	{
+		IPRangeLoader loader = new IPRangeLoader();
+		loader.add(ranges);
+		return loader.build();
+	}
+
+	/**
+	 * Parse whitespace separated ranges read from the given reader in bulk (see above).
+	 *
+	 * @param reader reader to parse ranges from, not closed
+	 * @return the resulting set
+	 * @throws IllegalArgumentException if any of the ranges is invalid
+	 * @throws IOException if reading fails
+	 */
+	public static IPRangeSet load(Reader reader) throws IOException
+	{
+		IPRangeLoader loader = new IPRangeLoader();
+		loader.add(reader);
+		return loader.build();
+	}
+
+	/**
+	 * Parse whitespace separated ranges in the remaining ASCII encoded bytes of the given buffer
+	 * in bulk (see above). The buffer's position is not changed.
+	 *
+	 * @param ranges bytes to parse
+	 * @return the resulting set
+	 * @throws IllegalArgumentException if any of the ranges is invalid
+	 */
+	public static IPRangeSet load(ByteBuffer ranges)
+	{
+		IPRangeLoader loader = new IPRangeLoader();
+		loader.add(ranges);
+		return loader.build();
+	}
+
+	/**
+	 * Encode this set in a compact binary format, that can be decoded again via decode().
+	 * <p>
+	 * The encoding consists of a magic value and version, the number of IPv4 and IPv6 ranges, the
+	 * sorted ranges themselves (4 resp. 16 bytes for each address) and a CRC-32 checksum, all in
+	 * network order.
+	 *
+	 * @return buffer containing the encoding (position 0, limit at the end of the encoding)
+	 */
+	public ByteBuffer encode()
+	{
+		int countIPv4 = 0, countIPv6 = 0;
+		for (IPRange range : mRanges)
 		{
-			for (String range : ranges.split("\\s+"))
+			if (range.isIPv6())
 			{
-				try
-				{
-					set.add(new IPRange(range));
-				}
-				catch (Exception unused)
-				{	/* besides due to invalid strings exceptions might get thrown if the string
-					 * contains a hostname (NetworkOnMainThreadException) */
-					return null;
-				}
+				countIPv6++;
 			}
+			else
+			{
+				countIPv4++;
+			}
+		}
+		ByteBuffer buffer = ByteBuffer.allocate(ENCODING_HEADER + countIPv4 * 8 + countIPv6 * 32 + 4);
+		buffer.putInt(ENCODING_MAGIC);
+		buffer.putInt(ENCODING_VERSION);
+		buffer.putInt(countIPv4);
+		buffer.putInt(countIPv6);
+		for (IPRange range : mRanges)
+		{
+			if (range.isIPv6())
+			{
+				buffer.putLong(range.getFromHigh());
+				buffer.putLong(range.getFromLow());
+				buffer.putLong(range.getToHigh());
+				buffer.putLong(range.getToLow());
+			}
+			else
+			{
+				buffer.putInt((int)range.getFromLow());
+				buffer.putInt((int)range.getToLow());
+			}
+		}
+		buffer.putInt(checksum(buffer, 0, buffer.position()));
+		buffer.flip();
+		return buffer;
+	}
+
+	/**
+	 * Decode a set previously encoded with encode(), starting at the current position of the
+	 * given buffer, which is moved to the end of the encoding.
+	 *
+	 * @param buffer buffer to decode
+	 * @return the decoded set
+	 * @throws IllegalArgumentException if the encoding is invalid or corrupted
+	 */
+	public static IPRangeSet decode(ByteBuffer buffer)
+	{
+		int start = buffer.position();
+		if (buffer.remaining() < ENCODING_HEADER + 4 ||
+			buffer.getInt() != ENCODING_MAGIC || buffer.getInt() != ENCODING_VERSION)
+		{
+			throw new IllegalArgumentException("Invalid encoding");
 		}
+		long countIPv4 = buffer.getInt(), countIPv6 = buffer.getInt();
+		if (countIPv4 < 0 || countIPv6 < 0 ||
+			buffer.remaining() < countIPv4 * 8 + countIPv6 * 32 + 4)
+		{
+			throw new IllegalArgumentException("Invalid encoding");
+		}
+		int length = ENCODING_HEADER + (int)(countIPv4 * 8 + countIPv6 * 32);
+		if (buffer.getInt(start + length) != checksum(buffer, start, length))
+		{
+			throw new IllegalArgumentException("Invalid checksum");
+		}
+		ArrayList<IPRange> ranges = new ArrayList<>((int)(countIPv4 + countIPv6));
+		for (int i = 0; i < countIPv4; i++)
+		{
+			long from = buffer.getInt() & 0xffffffffL, to = buffer.getInt() & 0xffffffffL;
+			ranges.add(new IPRange(false, 0, from, 0, to));
+		}
+		for (int i = 0; i < countIPv6; i++)
+		{
+			ranges.add(new IPRange(true, buffer.getLong(), buffer.getLong(), buffer.getLong(), buffer.getLong()));
+		}
+		buffer.getInt();
+		return fromSorted(ranges);
+	}
+
+	private static int checksum(ByteBuffer buffer, int offset, int length)
+	{
+		CRC32 crc = new CRC32();
+		byte[] chunk = new byte[Math.min(length, 8192)];
+		ByteBuffer data = buffer.duplicate();
+		data.position(offset);
+		while (length > 0)
+		{
+			int len = Math.min(length, chunk.length);
+			data.get(chunk, 0, len);
+			crc.update(chunk, 0, len);
+			length -= len;
+		}
+		return (int)crc.getValue();
+	}
+
+	/**
+	 * Create a set from the given sorted list of disjoint and not adjacent ranges.
+	 */
+	static IPRangeSet fromSorted(List<IPRange> ranges)
+	{
+		IPRangeSet set = new IPRangeSet();
+		set.mRanges = new TreeSet<>(new SortedRangeList(ranges));
 		return set;
 	}
 
@@ -60,28 +232,34 @@ public class IPRangeSet implements Iterable<IPRange>
 	 */
 	public void add(IPRange range)
 	{
-		if (mRanges.contains(range))
+		/* the ranges in the set are disjoint and not adjacent, so only the range starting at or
+		 * before the new one and those starting within it (or right after it) can be merged */
+		IPRange prev = mRanges.floor(range);
+		if (prev != null)
 		{
-			return;
+			IPRange merged = prev.merge(range);
+			if (merged == prev)
+			{
+				return;
+			}
+			else if (merged != null)
+			{
+				mRanges.remove(prev);
+				range = merged;
+			}
 		}
-		reinsert:
-		while (true)
+		Iterator<IPRange> iterator = mRanges.tailSet(range, false).iterator();
+		while (iterator.hasNext())
 		{
-			Iterator<IPRange> iterator = mRanges.iterator();
-			while (iterator.hasNext())
+			IPRange merged = range.merge(iterator.next());
+			if (merged == null)
 			{
-				IPRange existing = iterator.next();
-				IPRange replacement = existing.merge(range);
-				if (replacement != null)
-				{
-					iterator.remove();
-					range = replacement;
-					continue reinsert;
-				}
+				break;
 			}
-			mRanges.add(range);
-			break;
+			iterator.remove();
+			range = merged;
 		}
+		mRanges.add(range);
 	}
 
 	/**
@@ -93,10 +271,15 @@ public class IPRangeSet implements Iterable<IPRange>
 		{
 			return;
 		}
-		for (IPRange range : ranges.mRanges)
+		if (!preferSweep(ranges.size()))
 		{
-			add(range);
+			for (IPRange range : ranges.mRanges)
+			{
+				add(range);
+			}
+			return;
 		}
+		union(ranges.mRanges.iterator());
 	}
 
 	/**
@@ -104,10 +287,17 @@ public class IPRangeSet implements Iterable<IPRange>
 	 */
 	public void addAll(Collection<? extends IPRange> coll)
 	{
-		for (IPRange range : coll)
+		if (!preferSweep(coll.size()))
 		{
-			add(range);
+			for (IPRange range : coll)
+			{
+				add(range);
+			}
+			return;
 		}
+		ArrayList<IPRange> sorted = new ArrayList<>(coll);
+		Collections.sort(sorted);
+		union(sorted.iterator());
 	}
 
 	/**
@@ -115,21 +305,24 @@ public class IPRangeSet implements Iterable<IPRange>
 	 */
 	public void remove(IPRange range)
 	{
-		ArrayList <IPRange> additions = new ArrayList<>();
-		Iterator<IPRange> iterator = mRanges.iterator();
+		ArrayList<IPRange> additions = new ArrayList<>();
+		/* only the range starting at or before the given one may reach into it, all others that
+		 * are affected start within it */
+		IPRange first = mRanges.floor(range);
+		Iterator<IPRange> iterator = mRanges.tailSet(first != null ? first : range, true).iterator();
 		while (iterator.hasNext())
 		{
 			IPRange existing = iterator.next();
-			List<IPRange> result = existing.remove(range);
-			if (result.size() == 0)
+			if (!existing.overlaps(range))
 			{
-				iterator.remove();
-			}
-			else if (!result.get(0).equals(existing))
-			{
-				iterator.remove();
-				additions.addAll(result);
+				if (existing == first)
+				{
+					continue;
+				}
+				break;
 			}
+			iterator.remove();
+			additions.addAll(existing.remove(range));
 		}
 		mRanges.addAll(additions);
 	}
@@ -144,10 +337,117 @@ public class IPRangeSet implements Iterable<IPRange>
 			mRanges.clear();
 			return;
 		}
-		for (IPRange range : ranges.mRanges)
+		if (!preferSweep(ranges.size()))
+		{
+			for (IPRange range : ranges.mRanges)
+			{
+				remove(range);
+			}
+			return;
+		}
+		difference(ranges.mRanges.iterator());
+	}
+
+	/**
+	 * Whether a linear sweep over both sets is cheaper than handling the given number of ranges
+	 * individually (each at logarithmic cost).
+	 */
+	private boolean preferSweep(int count)
+	{
+		int depth = 32 - Integer.numberOfLeadingZeros(mRanges.size());
+		return count * depth >= mRanges.size();
+	}
+
+	/**
+	 * Merge the sorted (but not necessarily disjoint) ranges from the given iterator with the
+	 * ranges in this set in a single pass.
+	 */
+	private void union(Iterator<IPRange> other)
+	{
+		ArrayList<IPRange> result = new ArrayList<>(mRanges.size());
+		Iterator<IPRange> ours = mRanges.iterator();
+		IPRange a = ours.hasNext() ? ours.next() : null;
+		IPRange b = other.hasNext() ? other.next() : null;
+		IPRange current = null;
+
+		while (a != null || b != null)
+		{
+			IPRange next;
+			if (b == null || (a != null && a.compareTo(b) <= 0))
+			{
+				next = a;
+				a = ours.hasNext() ? ours.next() : null;
+			}
+			else
+			{
+				next = b;
+				b = other.hasNext() ? other.next() : null;
+			}
+			if (current != null)
+			{
+				IPRange merged = current.merge(next);
+				if (merged != null)
+				{
+					current = merged;
+					continue;
+				}
+				result.add(current);
+			}
+			current = next;
+		}
+		if (current != null)
 		{
-			remove(range);
+			result.add(current);
 		}
+		mRanges = new TreeSet<>(new SortedRangeList(result));
+	}
+
+	/**
+	 * Remove the sorted and disjoint ranges from the given iterator from the ranges in this set in
+	 * a single pass.
+	 */
+	private void difference(Iterator<IPRange> other)
+	{
+		ArrayList<IPRange> result = new ArrayList<>(mRanges.size());
+		IPRange b = other.hasNext() ? other.next() : null;
+
+		for (IPRange current : mRanges)
+		{
+			while (current != null && b != null)
+			{
+				if (!b.overlaps(current))
+				{
+					if (b.compareTo(current) > 0)
+					{	/* all remaining ranges to remove come after this range */
+						break;
+					}
+					b = other.hasNext() ? other.next() : null;
+					continue;
+				}
+				List<IPRange> remaining = current.remove(b);
+				current = null;
+				for (IPRange range : remaining)
+				{
+					if (range.compareTo(b) < 0)
+					{	/* the part before the removed range is final */
+						result.add(range);
+					}
+					else
+					{	/* the part after it may be affected by the next removed range */
+						current = range;
+					}
+				}
+				if (current != null)
+				{	/* otherwise, the removed range may reach into the next range */
+					b = other.hasNext() ? other.next() : null;
+				}
+			}
+			if (current != null)
+			{
+				result.add(current);
+			}
+		}
+		mRanges = new TreeSet<>(new SortedRangeList(result));
 	}
 
 	/**
@@ -162,24 +462,25 @@ public class IPRangeSet implements Iterable<IPRange>
 			{
 				return new Iterator<IPRange>()
 				{
-					private Iterator<IPRange> mIterator = mRanges.iterator();
-					private List<IPRange> mSubnets;
+					private SubnetCursor mCursor = subnetCursor();
+					private boolean mPending = mCursor.next();
 
 					@Override
 					public boolean hasNext()
 					{
-						return (mSubnets != null && mSubnets.size() > 0) || mIterator.hasNext();
+						return mPending;
 					}
 
 					@Override
 					public IPRange next()
 					{
-						if (mSubnets == null || mSubnets.size() == 0)
+						if (!mPending)
 						{
-							IPRange range = mIterator.next();
-							mSubnets = range.toSubnets();
+							throw new NoSuchElementException();
 						}
-						return mSubnets.remove(0);
+						IPRange subnet = mCursor.toRange();
+						mPending = mCursor.next();
+						return subnet;
 					}
 
 					@Override
@@ -192,6 +493,15 @@ public class IPRangeSet implements Iterable<IPRange>
 		};
 	}
 
+	/**
+	 * Get a cursor over all the subnets derived from all the ranges in this set that does not
+	 * create any objects per subnet.  The set must not be modified while the cursor is used.
+	 */
+	public SubnetCursor subnetCursor()
+	{
+		return new SubnetCursor(mRanges.iterator());
+	}
+
 	@Override
 	public Iterator<IPRange> iterator()
 	{
@@ -220,4 +530,66 @@ public class IPRangeSet implements Iterable<IPRange>
 		}
 		return sb.toString();
 	}
+
+	/**
+	 * Read-only view of an already sorted list of disjoint ranges. Allows creating a TreeSet from
+	 * the list in linear time (it only uses iterator(), size() and comparator() in that case).
+	 */
+	private static class SortedRangeList extends AbstractSet<IPRange> implements SortedSet<IPRange>
+	{
+		private final List<IPRange> mList;
+
+		SortedRangeList(List<IPRange> list)
+		{
+			mList = list;
+		}
+
+		@Override
+		public Iterator<IPRange> iterator()
+		{
+			return Collections.unmodifiableList(mList).iterator();
+		}
+
+		@Override
+		public int size()
+		{
+			return mList.size();
+		}
+
+		@Override
+		public Comparator<? super IPRange> comparator()
+		{	/* natural ordering, same as our TreeSet */
+			return null;
+		}
+
+		@Override
+		public IPRange first()
+		{
+			return mList.get(0);
+		}
+
+		@Override
+		public IPRange last()
+		{
+			return mList.get(mList.size() - 1);
+		}
+
+		@Override
+		public SortedSet<IPRange> subSet(IPRange fromElement, IPRange toElement)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public SortedSet<IPRange> headSet(IPRange toElement)
+		{
+			throw new UnsupportedOperationException();
+		}
+
+		@Override
+		public SortedSet<IPRange> tailSet(IPRange fromElement)
+		{
+			throw new UnsupportedOperationException();
+		}
+	}
 }
@@ -0,0 +1,191 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Arrays;
+import java.util.Comparator;
+
+/**
+ * Persistent cache for precomputed IP range sets.  Each entry is a group of sets stored in their
+ * binary encoding (see {@link IPRangeSet#encode()}) in a file that's named after a hash of the
+ * entry's key, and which is memory-mapped when loaded again.
+ */
+public class IPRangeSetCache
+{
+	private static final String PREFIX = "ranges-";
+	/* only keep a few entries around */
+	private static final int MAX_ENTRIES = 4;
+	private final File mDir;
+
+	/**
+	 * Create a cache that stores its files in the given directory.
+	 */
+	public IPRangeSetCache(File dir)
+	{
+		mDir = dir;
+	}
+
+	/**
+	 * Load the sets stored for the given key.
+	 *
+	 * @param key key of the entry
+	 * @param count expected number of sets
+	 * @return the sets, null if not found or invalid
+	 */
+	public IPRangeSet[] get(String key, int count)
+	{
+		File file = getFile(key);
+		if (!file.exists())
+		{
+			return null;
+		}
+		try
+		{
+			RandomAccessFile raf = new RandomAccessFile(file, "r");
+			MappedByteBuffer buffer;
+			try
+			{
+				buffer = raf.getChannel().map(FileChannel.MapMode.READ_ONLY, 0, raf.length());
+			}
+			finally
+			{
+				raf.close();
+			}
+			IPRangeSet[] sets = new IPRangeSet[count];
+			for (int i = 0; i < count; i++)
+			{
+				sets[i] = IPRangeSet.decode(buffer);
+			}
+			if (buffer.hasRemaining())
+			{
+				throw new IllegalArgumentException("Trailing data");
+			}
+			/* mark the entry as recently used */
+			file.setLastModified(System.currentTimeMillis());
+			return sets;
+		}
+		catch (IOException | IllegalArgumentException e)
+		{
+			e.printStackTrace();
+			file.delete();
+			return null;
+		}
+	}
+
+	/**
+	 * Store the given sets for the given key.  Older entries are removed if there are too many.
+	 *
+	 * @param key key of the entry
+	 * @param sets sets to store
+	 */
+	public void put(String key, IPRangeSet... sets)
+	{
+		File file = getFile(key);
+		File tmp = new File(mDir, file.getName() + ".tmp");
+		try
+		{
+			FileOutputStream out = new FileOutputStream(tmp);
+			try
+			{
+				FileChannel channel = out.getChannel();
+				for (IPRangeSet set : sets)
+				{
+					ByteBuffer encoding = set.encode();
+					while (encoding.hasRemaining())
+					{
+						channel.write(encoding);
+					}
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+			if (!tmp.renameTo(file))
+			{
+				throw new IOException("Unable to rename " + tmp);
+			}
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+			tmp.delete();
+			return;
+		}
+		purge();
+	}
+
+	private File getFile(String key)
+	{
+		try
+		{
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			byte[] hash = digest.digest(key.getBytes(Charset.forName("UTF-8")));
+			return new File(mDir, PREFIX + Utils.bytesToHex(hash));
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+	/**
+	 * Remove the least recently used entries if there are too many.
+	 */
+	private void purge()
+	{
+		File[] files = mDir.listFiles();
+		if (files == null)
+		{
+			return;
+		}
+		int count = 0;
+		for (File file : files)
+		{
+			if (file.getName().startsWith(PREFIX) && !file.getName().endsWith(".tmp"))
+			{
+				files[count++] = file;
+			}
+		}
+		if (count <= MAX_ENTRIES)
+		{
+			return;
+		}
+		files = Arrays.copyOf(files, count);
+		Arrays.sort(files, new Comparator<File>()
+		{
+			@Override
+			public int compare(File a, File b)
+			{
+				long diff = b.lastModified() - a.lastModified();
+				return diff < 0 ? -1 : (diff > 0 ? 1 : 0);
+			}
+		});
+		for (int i = MAX_ENTRIES; i < files.length; i++)
+		{
+			files[i].delete();
+		}
+	}
+}
@@ -0,0 +1,211 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * Writes raw IP packets to a memory-mapped pcapng file of fixed size, which is used as ring buffer.
+ * <p>
+ * The file starts with a section header and an interface description block.  The rest of the
+ * file always consists of complete blocks, initially a single custom block that's ignored by
+ * readers.  Packets are written over the oldest blocks, any remaining space of the last
+ * overwritten block is turned into another such filler block.  Once the end of the file is
+ * reached, writing continues after the headers, so the file is always valid but after wrapping
+ * around the newest packets are at the front.
+ * <p>
+ * This class is not thread-safe.
+ */
+public class PcapngWriter
+{
+	private static final int SECTION_HEADER_BLOCK = 0x0A0D0D0A;
+	private static final int INTERFACE_DESCRIPTION_BLOCK = 0x00000001;
+	private static final int ENHANCED_PACKET_BLOCK = 0x00000006;
+	/* custom block that must not be copied, used to fill unused space */
+	private static final int FILLER_BLOCK = 0x40000BAD;
+	private static final int LINKTYPE_RAW = 101;
+	private static final int SNAPLEN = 65535;
+
+	private static final int HEADERS_SIZE = 28 + 20;
+	/* type, length, and private enterprise number plus trailing length */
+	private static final int MIN_FILLER = 16;
+	/* type, length, interface, timestamp, captured and original length plus trailing length */
+	private static final int PACKET_OVERHEAD = 32;
+	private static final byte[] PADDING = new byte[4];
+	private static final byte[] HEADERS = encodeHeaders();
+
+	private final RandomAccessFile mFile;
+	private final MappedByteBuffer mBuffer;
+	private final int mSize;
+	/* position of the oldest block, where the next packet is written */
+	private int mPos = HEADERS_SIZE;
+	/* offset to convert System.nanoTime() to microseconds since the epoch */
+	private final long mEpochMicros, mEpochNanos;
+
+	/**
+	 * Create the given file (or truncate it) and map it.
+	 *
+	 * @param file file to write to
+	 * @param size size of the file in bytes
+	 * @throws IOException if the file can't be created or mapped
+	 */
+	public PcapngWriter(File file, int size) throws IOException
+	{
+		size &= ~3;
+		if (size < HEADERS_SIZE + MIN_FILLER)
+		{
+			throw new IllegalArgumentException("Invalid size");
+		}
+		mSize = size;
+		mFile = new RandomAccessFile(file, "rw");
+		try
+		{
+			mFile.setLength(0);
+			mFile.setLength(size);
+			mBuffer = mFile.getChannel().map(FileChannel.MapMode.READ_WRITE, 0, size);
+		}
+		catch (IOException e)
+		{
+			mFile.close();
+			throw e;
+		}
+		mBuffer.order(ByteOrder.LITTLE_ENDIAN);
+		mBuffer.put(HEADERS);
+		writeFiller(HEADERS_SIZE, size - HEADERS_SIZE);
+		mEpochMicros = System.currentTimeMillis() * 1000;
+		mEpochNanos = System.nanoTime();
+	}
+
+	/**
+	 * Pre-encode the section header and interface description blocks.
+	 */
+	private static byte[] encodeHeaders()
+	{
+		ByteBuffer headers = ByteBuffer.allocate(HEADERS_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+		headers.putInt(SECTION_HEADER_BLOCK).putInt(28);
+		/* byte-order magic, version 1.0, unknown section length */
+		headers.putInt(0x1A2B3C4D).putShort((short)1).putShort((short)0).putLong(-1);
+		headers.putInt(28);
+		headers.putInt(INTERFACE_DESCRIPTION_BLOCK).putInt(20);
+		headers.putShort((short)LINKTYPE_RAW).putShort((short)0).putInt(SNAPLEN);
+		headers.putInt(20);
+		return headers.array();
+	}
+
+	private void writeFiller(int pos, int len)
+	{
+		mBuffer.putInt(pos, FILLER_BLOCK);
+		mBuffer.putInt(pos + 4, len);
+		mBuffer.putInt(pos + 8, 0);
+		mBuffer.putInt(pos + len - 4, len);
+	}
+
+	/**
+	 * Write the given packet with the current time (the buffer's position is not changed).
+	 *
+	 * @param packet IP packet (between position and limit)
+	 * @return false if the packet is too large for the file
+	 */
+	public boolean write(ByteBuffer packet)
+	{
+		long micros = mEpochMicros + (System.nanoTime() - mEpochNanos) / 1000;
+		int len = Math.min(packet.remaining(), SNAPLEN), padded = (len + 3) & ~3;
+		int size = PACKET_OVERHEAD + padded;
+		int available = mSize - HEADERS_SIZE;
+		if (size != available && size > available - MIN_FILLER)
+		{	/* there has to be space for a filler block after the packet */
+			return false;
+		}
+		int end = reserve(size);
+		if (end < 0)
+		{	/* not enough space until the end of the file, wrap around */
+			mPos = HEADERS_SIZE;
+			end = reserve(size);
+		}
+		ByteBuffer buf = mBuffer;
+		int pos = mPos;
+		buf.putInt(pos, ENHANCED_PACKET_BLOCK);
+		buf.putInt(pos + 4, size);
+		buf.putInt(pos + 8, 0);
+		buf.putInt(pos + 12, (int)(micros >>> 32));
+		buf.putInt(pos + 16, (int)micros);
+		buf.putInt(pos + 20, len);
+		buf.putInt(pos + 24, packet.remaining());
+		buf.position(pos + 28);
+		int limit = packet.limit();
+		packet.limit(packet.position() + len);
+		buf.put(packet);
+		packet.position(packet.limit() - len);
+		packet.limit(limit);
+		buf.put(PADDING, 0, padded - len);
+		buf.putInt(pos + size - 4, size);
+		mPos = pos + size;
+		if (end > mPos)
+		{
+			writeFiller(mPos, end - mPos);
+		}
+		return true;
+	}
+
+	/**
+	 * Determine which blocks have to be overwritten to write a block of the given size at the
+	 * current position, so that the remaining space can be filled.
+	 *
+	 * @return end of the last block to overwrite, -1 if the end of the file is reached
+	 */
+	private int reserve(int size)
+	{
+		int end = mPos;
+		while (end - mPos < size || (end - mPos > size && end - mPos - size < MIN_FILLER))
+		{
+			if (end == mSize)
+			{
+				return -1;
+			}
+			end += mBuffer.getInt(end + 4);
+		}
+		return end;
+	}
+
+	/**
+	 * Flush the written data to the file.
+	 */
+	public void flush()
+	{
+		mBuffer.force();
+	}
+
+	/**
+	 * Flush the written data to the file and close it.
+	 */
+	public void close()
+	{
+		mBuffer.force();
+		try
+		{
+			mFile.close();
+		}
+		catch (IOException e)
+		{
+			e.printStackTrace();
+		}
+	}
+}
@@ -0,0 +1,292 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import java.math.BigInteger;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Covers all ranges of an {@link IPRangeSet} with at most a given number of subnets, while
+ * minimizing the number of addresses that are covered but not contained in the set.
+ * <p>
+ * The subnets of the set are arranged in a path-compressed binary trie, every node of which is
+ * the smallest subnet containing the subnets below it.  Any subnet covering some of the set's
+ * subnets corresponds to such a node, so the optimal cover is found by a knapsack-style
+ * dynamic program over the trie (in O(n * limit) time for n subnets).
+ * <p>
+ * Numbers of addresses are exact unsigned 128-bit integers, stored as two longs like the
+ * addresses in {@link IPRange}.  Sums that exceed that saturate, which only happens if a subnet
+ * covering almost the whole IPv6 address space is combined with IPv4 subnets.
+ */
+public class SubnetCover
+{
+	private final List<IPRange> mSubnets = new ArrayList<>();
+	private final List<IPRange> mWidened = new ArrayList<>();
+	private BigInteger mExcess = BigInteger.ZERO;
+
+	/**
+	 * Determine the subnets that cover the given set.
+	 *
+	 * @param ranges set to cover
+	 * @param limit maximum number of subnets (at least one per address family is always used)
+	 */
+	public SubnetCover(IPRangeSet ranges, int limit)
+	{
+		if (limit < 1)
+		{
+			throw new IllegalArgumentException("Invalid limit");
+		}
+		ArrayList<IPRange> subnets = new ArrayList<>();
+		for (IPRange subnet : ranges.subnets())
+		{
+			subnets.add(subnet);
+		}
+		if (subnets.size() <= limit)
+		{
+			mSubnets.addAll(subnets);
+			return;
+		}
+		/* IPv4 subnets come first, if there are both families they get a common root that can't
+		 * be selected as subnet itself */
+		int split = 0;
+		while (split < subnets.size() && !subnets.get(split).isIPv6())
+		{
+			split++;
+		}
+		Node root;
+		if (split == 0 || split == subnets.size())
+		{
+			root = build(subnets, 0, subnets.size() - 1);
+		}
+		else
+		{
+			root = new Node(build(subnets, 0, split - 1), build(subnets, split, subnets.size() - 1));
+			limit = Math.max(limit, 2);
+		}
+		root.solve(limit);
+		collect(root, limit);
+	}
+
+	/**
+	 * Get the sorted list of covering subnets.
+	 */
+	public List<IPRange> getSubnets()
+	{
+		return Collections.unmodifiableList(mSubnets);
+	}
+
+	/**
+	 * Get the covering subnets that also contain addresses that are not in the original set.
+	 */
+	public List<IPRange> getWidened()
+	{
+		return Collections.unmodifiableList(mWidened);
+	}
+
+	/**
+	 * Get the total number of addresses that are covered but not contained in the original set.
+	 */
+	public BigInteger getExcess()
+	{
+		return mExcess;
+	}
+
+	/**
+	 * Build the trie for the given sorted and disjoint subnets.
+	 */
+	private static Node build(List<IPRange> subnets, int first, int last)
+	{
+		if (first == last)
+		{
+			return new Node(subnets.get(first));
+		}
+		IPRange a = subnets.get(first), b = subnets.get(last);
+		/* the first differing bit of the first and the last subnet determines the node's
+		 * prefix, it is 0 for all subnets in the left and 1 for all in the right subtree */
+		int prefix = commonPrefix(a.getFromHigh() ^ b.getFromHigh(), a.getFromLow() ^ b.getFromLow(), a.getBits());
+		int low = first + 1, high = last;
+		while (low < high)
+		{
+			int mid = (low + high) >>> 1;
+			if (bitSet(subnets.get(mid), prefix))
+			{
+				high = mid;
+			}
+			else
+			{
+				low = mid + 1;
+			}
+		}
+		Node node = new Node(build(subnets, first, low - 1), build(subnets, low, last));
+		node.setSubnet(a, prefix);
+		return node;
+	}
+
+	private static int commonPrefix(long diffHigh, long diffLow, int bits)
+	{
+		int common = diffHigh != 0 ? Long.numberOfLeadingZeros(diffHigh)
+								   : 64 + Long.numberOfLeadingZeros(diffLow);
+		/* IPv4 addresses are stored in the lower 32 bits */
+		return common - (128 - bits);
+	}
+
+	private static boolean bitSet(IPRange subnet, int bit)
+	{
+		int pos = subnet.getBits() - 1 - bit;
+		if (pos >= 64)
+		{
+			return (subnet.getFromHigh() & (1L << (pos - 64))) != 0;
+		}
+		return (subnet.getFromLow() & (1L << pos)) != 0;
+	}
+
+	/**
+	 * Collect the subnets selected for the given node if at most limit subnets may be used.
+	 */
+	private void collect(Node node, int limit)
+	{
+		/* a subtree may be assigned more subnets than it actually needs */
+		limit = Math.min(limit, node.mCount);
+		if (node.mLeft == null)
+		{
+			mSubnets.add(node.mSubnet);
+			return;
+		}
+		int left = node.mSplit[limit - 1];
+		if (left == 0)
+		{
+			mSubnets.add(node.mSubnet);
+			mWidened.add(node.mSubnet);
+			mExcess = mExcess.add(new BigInteger(1, IPRange.toBytes(true, node.mExcessHigh, node.mExcessLow)));
+			return;
+		}
+		collect(node.mLeft, left);
+		collect(node.mRight, limit - left);
+	}
+
+	/**
+	 * Add two unsigned 128-bit integers and store the result at the given index, saturating if
+	 * it doesn't fit.
+	 */
+	private static void add(long[] out, int i, long aHigh, long aLow, long bHigh, long bLow)
+	{
+		long low = aLow + bLow;
+		long carry = IPRange.compareAddr(0, low, 0, aLow) < 0 ? 1 : 0;
+		long high = aHigh + bHigh + carry;
+		int cmp = IPRange.compareAddr(0, high, 0, aHigh);
+		if (cmp < 0 || (cmp == 0 && (bHigh != 0 || carry != 0)))
+		{
+			high = low = -1;
+		}
+		out[i] = high;
+		out[i+1] = low;
+	}
+
+	private static class Node
+	{
+		private final Node mLeft, mRight;
+		/* number of subnets of the original set in this subtree */
+		private final int mCount;
+		/* number of addresses in the original subnets below this node */
+		private long mCoveredHigh, mCoveredLow;
+		/* number of additional addresses if this node's subnet is selected (saturated if it
+		 * can't be selected) */
+		private long mExcessHigh = -1, mExcessLow = -1;
+		private IPRange mSubnet;
+		/* mCost[2k-2] and mCost[2k-1] are the minimal excess (upper and lower 64 bits) with at
+		 * most k subnets, mSplit[k-1] the number of subnets assigned to the left subtree to
+		 * achieve that (0 if this node is selected) */
+		private long[] mCost;
+		private int[] mSplit;
+
+		Node(IPRange subnet)
+		{
+			mLeft = mRight = null;
+			mCount = 1;
+			mSubnet = subnet;
+			/* for ::/0 this overflows to 0, but such a subnet is never below a common subnet */
+			int host = subnet.getBits() - subnet.getPrefix();
+			mCoveredHigh = host >= 64 && host < 128 ? 1L << (host - 64) : 0;
+			mCoveredLow = host < 64 ? 1L << host : 0;
+			mExcessHigh = mExcessLow = 0;
+		}
+
+		Node(Node left, Node right)
+		{
+			mLeft = left;
+			mRight = right;
+			mCount = left.mCount + right.mCount;
+			long[] covered = new long[2];
+			add(covered, 0, left.mCoveredHigh, left.mCoveredLow, right.mCoveredHigh, right.mCoveredLow);
+			mCoveredHigh = covered[0];
+			mCoveredLow = covered[1];
+			/* without an actual subnet (common root of both families) this can't be selected */
+		}
+
+		void setSubnet(IPRange base, int prefix)
+		{
+			mSubnet = new IPRange(base.getFrom(), prefix);
+			/* the size of the subnet minus the covered addresses, for ::/0 the size of 2^128
+			 * wraps to 0, which still yields the correct difference */
+			int host = base.getBits() - prefix;
+			long sizeHigh = host >= 64 && host < 128 ? 1L << (host - 64) : 0;
+			long sizeLow = host < 64 ? 1L << host : 0;
+			mExcessLow = sizeLow - mCoveredLow;
+			mExcessHigh = sizeHigh - mCoveredHigh - (IPRange.compareAddr(0, sizeLow, 0, mCoveredLow) < 0 ? 1 : 0);
+		}
+
+		void solve(int limit)
+		{
+			if (mLeft == null)
+			{
+				mCost = new long[]{0, 0};
+				return;
+			}
+			mLeft.solve(limit);
+			mRight.solve(limit);
+
+			long[] left = mLeft.mCost, right = mRight.mCost, cost = new long[2];
+			int max = Math.min(limit, mCount);
+			mCost = new long[2 * max];
+			mSplit = new int[max];
+			mCost[0] = mExcessHigh;
+			mCost[1] = mExcessLow;
+			for (int k = 2; k <= max; k++)
+			{
+				int best = 2 * (k - 1);
+				mCost[best] = mCost[best-2];
+				mCost[best+1] = mCost[best-1];
+				mSplit[k-1] = mSplit[k-2];
+				int from = Math.max(1, k - right.length / 2), to = Math.min(left.length / 2, k - 1);
+				for (int i = from; i <= to; i++)
+				{	/* a node that can't be selected has to be split, even if the sum saturates */
+					int l = 2 * (i - 1), r = 2 * (k - i - 1);
+					add(cost, 0, left[l], left[l+1], right[r], right[r+1]);
+					if (IPRange.compareAddr(cost[0], cost[1], mCost[best], mCost[best+1]) < 0 ||
+						(mSplit[k-1] == 0 && mSubnet == null))
+					{
+						mCost[best] = cost[0];
+						mCost[best+1] = cost[1];
+						mSplit[k-1] = i;
+					}
+				}
+			}
+			/* the children's costs are not needed anymore, only the splits */
+			mLeft.mCost = mRight.mCost = null;
+		}
+	}
+}
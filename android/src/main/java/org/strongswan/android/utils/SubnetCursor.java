@@ -0,0 +1,162 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Iterator;
+
+/**
+ * Cursor over the subnets derived from a sorted sequence of ranges (see
+ * {@link IPRangeSet#subnetCursor()}).  In contrast to {@link IPRange#toSubnets()} no objects are
+ * created per subnet, the current subnet is only available via the getters until {@link #next()}
+ * is called again.
+ * <pre>
+ * SubnetCursor cursor = set.subnetCursor();
+ * while (cursor.next())
+ * {
+ *     use(cursor.getAddress(), cursor.getPrefix());
+ * }
+ * </pre>
+ */
+public class SubnetCursor
+{
+	private final Iterator<IPRange> mRanges;
+	private final byte[] mAddressIPv4 = new byte[4];
+	private final byte[] mAddressIPv6 = new byte[16];
+	/* the range currently being split and the start of the next subnet in it */
+	private IPRange mRange;
+	private long mNextHigh, mNextLow;
+	/* the current subnet */
+	private boolean mIPv6;
+	private long mHigh, mLow;
+	private int mPrefix = -1;
+
+	SubnetCursor(Iterator<IPRange> ranges)
+	{
+		mRanges = ranges;
+	}
+
+	/**
+	 * Move to the next subnet.
+	 *
+	 * @return true if there is one, false if all subnets have been enumerated
+	 */
+	public boolean next()
+	{
+		if (mRange == null)
+		{
+			if (!mRanges.hasNext())
+			{
+				mPrefix = -1;
+				return false;
+			}
+			mRange = mRanges.next();
+			mNextHigh = mRange.getFromHigh();
+			mNextLow = mRange.getFromLow();
+		}
+		int bits = mRange.getBits();
+		mIPv6 = mRange.isIPv6();
+		mHigh = mNextHigh;
+		mLow = mNextLow;
+		mPrefix = IPRange.largestSubnet(bits, mHigh, mLow, mRange.getToHigh(), mRange.getToLow());
+
+		long toHigh = mHigh | IPRange.lowOnes(bits - mPrefix - 64);
+		long toLow = mLow | IPRange.lowOnes(bits - mPrefix);
+		if (toHigh == mRange.getToHigh() && toLow == mRange.getToLow())
+		{
+			mRange = null;
+		}
+		else
+		{
+			mNextHigh = IPRange.incHigh(toHigh, toLow);
+			mNextLow = toLow + 1;
+		}
+		return true;
+	}
+
+	/**
+	 * Whether the current subnet is an IPv6 subnet.
+	 */
+	public boolean isIPv6()
+	{
+		return mIPv6;
+	}
+
+	/**
+	 * Prefix length of the current subnet.
+	 */
+	public int getPrefix()
+	{
+		return mPrefix;
+	}
+
+	/**
+	 * Upper 64 bits of the current subnet's network address (0 for IPv4).
+	 */
+	public long getAddressHigh()
+	{
+		return mHigh;
+	}
+
+	/**
+	 * Lower 64 bits of the current subnet's network address (or the complete IPv4 address).
+	 */
+	public long getAddressLow()
+	{
+		return mLow;
+	}
+
+	/**
+	 * Network address of the current subnet in network order.  The returned array is reused and
+	 * overwritten by the next call.
+	 */
+	public byte[] getAddress()
+	{
+		byte[] addr = mIPv6 ? mAddressIPv6 : mAddressIPv4;
+		long value = mLow;
+		for (int i = addr.length - 1; i >= 0; i--)
+		{
+			addr[i] = (byte)value;
+			value = (i == 8) ? mHigh : value >>> 8;
+		}
+		return addr;
+	}
+
+	/**
+	 * Network address of the current subnet as InetAddress object.
+	 */
+	public InetAddress getInetAddress()
+	{
+		try
+		{
+			return InetAddress.getByAddress(getAddress());
+		}
+		catch (UnknownHostException ignored)
+		{
+			return null;
+		}
+	}
+
+	/**
+	 * Create an IPRange object for the current subnet.
+	 */
+	IPRange toRange()
+	{
+		int bits = mIPv6 ? 128 : 32;
+		return new IPRange(mIPv6, mHigh, mLow, mHigh | IPRange.lowOnes(bits - mPrefix - 64),
+						   mLow | IPRange.lowOnes(bits - mPrefix), mPrefix);
+	}
+}
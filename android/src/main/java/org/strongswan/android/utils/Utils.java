@@ -18,6 +18,7 @@ package org.strongswan.android.utils;
 
 import java.net.InetAddress;
 import java.net.UnknownHostException;
+import java.util.Arrays;
 
 public class Utils
 {
@@ -50,14 +51,6 @@ public class Utils
 	 */
 	public native static boolean isProposalValid(boolean ike, String proposal);
 
-	/**
-	 * Parse an IP address without doing a name lookup
-	 *
-	 * @param address IP address string
-	 * @return address bytes if valid
-	 */
-	private native static byte[] parseInetAddressBytes(String address);
-
 	/**
 	 * Parse an IP address without doing a name lookup (as compared to InetAddress.fromName())
 	 *
@@ -67,11 +60,19 @@ public class Utils
 	 */
 	public static InetAddress parseInetAddress(String address) throws UnknownHostException
 	{
-		byte[] bytes = parseInetAddressBytes(address);
-		if (bytes == null)
+		if (address == null)
 		{
 			throw new UnknownHostException();
 		}
-		return InetAddress.getByAddress(bytes);
+		byte[] bytes = new byte[16];
+		switch (IPAddressParser.parse(address, bytes))
+		{
+			case IPAddressParser.IPv4:
+				return InetAddress.getByAddress(Arrays.copyOf(bytes, 4));
+			case IPAddressParser.IPv6:
+				return InetAddress.getByAddress(bytes);
+			default:
+				throw new UnknownHostException(address);
+		}
 	}
 }
@@ -33,6 +33,8 @@ import io.flutter.plugin.common.MethodChannel
 import io.flutter.plugin.common.MethodChannel.MethodCallHandler
 import io.flutter.plugin.common.MethodChannel.Result
 import io.flutter.plugin.common.PluginRegistry
+import org.strongswan.android.logic.ConnectionTimings
+import org.strongswan.android.logic.DropStatistics
 import org.strongswan.android.logic.VpnStateService
 
 class FlutterVpnPlugin : FlutterPlugin, MethodCallHandler, ActivityAware {
@@ -137,6 +139,10 @@ class FlutterVpnPlugin : FlutterPlugin, MethodCallHandler, ActivityAware {
                 profileInfo.putString("Password", args["Password"] as String)
                 if (args.containsKey("MTU"))  profileInfo.putInt("MTU", args["MTU"] as Int)
                 if (args.containsKey("Port")) profileInfo.putInt("Port", args["Port"] as Int)
+                if (args.containsKey("RouteBudget")) profileInfo.putInt("RouteBudget", args["RouteBudget"] as Int)
+                if (args.containsKey("CaptureSize")) profileInfo.putInt("CaptureSize", args["CaptureSize"] as Int)
+                if (args.containsKey("IncludedSubnets")) profileInfo.putString("IncludedSubnets", args["IncludedSubnets"] as String)
+                if (args.containsKey("ExcludedSubnets")) profileInfo.putString("ExcludedSubnets", args["ExcludedSubnets"] as String)
 
                 vpnStateService?.connect(profileInfo, true)
                 result.success(true)
@@ -148,6 +154,40 @@ class FlutterVpnPlugin : FlutterPlugin, MethodCallHandler, ActivityAware {
                     result.success(vpnStateService?.state?.ordinal)
             }
             "getCharonErrorState" -> result.success(vpnStateService?.errorState?.ordinal)
+            "getConnectionTimings" -> {
+                val timings = ConnectionTimings.getInstance()
+                val phases = (0 until ConnectionTimings.getPhaseCount()).map { ConnectionTimings.getPhaseName(it) }
+                // Phases that were not reached are omitted from the timelines.
+                val timelines = timings.timelines.map { times ->
+                    phases.indices.filter { times[it] >= 0 }.associate { phases[it] to times[it] }
+                }
+                val percentiles = (0..ConnectionTimings.getPhaseCount()).associate { phase ->
+                    ConnectionTimings.getPhaseName(phase) to mapOf(
+                        "count" to timings.getCount(phase),
+                        "p50" to timings.getPercentile(phase, 50.0),
+                        "p90" to timings.getPercentile(phase, 90.0),
+                        "p99" to timings.getPercentile(phase, 99.0)
+                    )
+                }
+                result.success(mapOf("timelines" to timelines, "percentiles" to percentiles))
+            }
+            "getDropStatistics" -> {
+                val stats = vpnStateService?.dropStatistics
+                if (stats == null) {
+                    result.success(null)
+                    return
+                }
+                val protocols = (0 until DropStatistics.getProtocolCount()).associate {
+                    DropStatistics.getProtocolName(it) to stats.getPackets(it)
+                }
+                result.success(mapOf(
+                    "packets" to stats.packets,
+                    "bytes" to stats.bytes,
+                    "maxBurst" to stats.maxBurst,
+                    "duration" to stats.duration,
+                    "protocols" to protocols
+                ))
+            }
             "disconnect" -> vpnStateService?.disconnect()
             else -> result.notImplemented()
         }
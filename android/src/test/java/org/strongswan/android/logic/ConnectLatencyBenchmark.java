@@ -0,0 +1,262 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.logic;
+
+import android.content.Intent;
+import android.content.ServiceConnection;
+import android.net.VpnService;
+import android.os.ParcelFileDescriptor;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+import org.strongswan.android.data.VpnProfile;
+import org.strongswan.android.data.VpnType;
+
+import java.io.File;
+import java.net.InetAddress;
+import java.util.Arrays;
+import java.util.Locale;
+import java.util.UUID;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assume.assumeTrue;
+
+/**
+ * Measures the overhead of the Java side of connecting, reconnecting and switching profiles,
+ * with the daemon replaced by {@link FakeCharonBridge} and a fake VpnService.Builder.
+ * <p>
+ * It's skipped unless enabled, run it with e.g.
+ * {@code ./gradlew testDebugUnitTest -PconnectBenchmark --tests '*ConnectLatencyBenchmark'}, the
+ * results are printed to stdout.
+ */
+public class ConnectLatencyBenchmark
+{
+	private static final int WARMUP = 10;
+	private static final int ITERATIONS = 50;
+	private static final int ROUTES_IPV4 = 500;
+	private static final int ROUTES_IPV6 = 100;
+
+	@Rule
+	public TemporaryFolder mFolder = new TemporaryFolder();
+	private FakeCharonBridge mBridge;
+	private BenchmarkService mService;
+
+	/**
+	 * Service that works on the JVM.  It uses a temporary directory, binds a local state
+	 * service directly, and creates TUN devices via a fake builder.
+	 */
+	private static class BenchmarkService extends CharonVpnService
+	{
+		private final File mDir;
+		private volatile CountDownLatch mConnected = new CountDownLatch(1);
+		private volatile int mRoutes;
+
+		BenchmarkService(File dir)
+		{
+			mDir = dir;
+		}
+
+		@Override
+		public File getFilesDir()
+		{
+			return mDir;
+		}
+
+		@Override
+		public String getPackageName()
+		{
+			return "io.xdea.flutter_vpn";
+		}
+
+		@Override
+		public boolean bindService(Intent service, ServiceConnection conn, int flags)
+		{
+			VpnStateService state = new VpnStateService();
+			state.onCreate();
+			conn.onServiceConnected(null, state.new LocalBinder());
+			return true;
+		}
+
+		@Override
+		VpnService.Builder createVpnBuilder()
+		{
+			return new FakeBuilder();
+		}
+
+		@Override
+		public void updateStatus(int status)
+		{
+			super.updateStatus(status);
+			if (status == STATE_CHILD_SA_UP)
+			{
+				mConnected.countDown();
+			}
+		}
+
+		/**
+		 * Initiate the given profile (or disconnect) and wait until the connection is up.
+		 */
+		void connect(VpnProfile profile) throws InterruptedException
+		{
+			mConnected = new CountDownLatch(1);
+			setNextProfile(profile);
+			assertTrue("connection timed out", mConnected.await(30, TimeUnit.SECONDS));
+		}
+
+		class FakeBuilder extends VpnService.Builder
+		{
+			private int mRouteCount;
+
+			@Override
+			public VpnService.Builder addRoute(InetAddress address, int prefixLength)
+			{
+				mRouteCount++;
+				return this;
+			}
+
+			@Override
+			public VpnService.Builder addRoute(String address, int prefixLength)
+			{
+				mRouteCount++;
+				return this;
+			}
+
+			@Override
+			public ParcelFileDescriptor establish()
+			{
+				mRoutes = mRouteCount;
+				return new ParcelFileDescriptor(null);
+			}
+		}
+	}
+
+	@Before
+	public void setUp()
+	{
+		assumeTrue("benchmark not enabled", Boolean.getBoolean("connectBenchmark"));
+		mBridge = new FakeCharonBridge().setRoutes(ROUTES_IPV4, ROUTES_IPV6);
+		CharonVpnService.setCharonBridge(mBridge);
+		mService = new BenchmarkService(mFolder.getRoot());
+		mService.onCreate();
+	}
+
+	@After
+	public void tearDown()
+	{
+		if (mService != null)
+		{
+			mService.onDestroy();
+		}
+		CharonVpnService.setCharonBridge(null);
+	}
+
+	private static VpnProfile createProfile(String name, String excluded)
+	{
+		VpnProfile profile = new VpnProfile();
+		profile.setId(1);
+		profile.setUUID(UUID.randomUUID());
+		profile.setName(name);
+		profile.setMTU(1400);
+		profile.setGateway("vpn.example.com");
+		profile.setUsername("user");
+		profile.setPassword("secret");
+		profile.setVpnType(VpnType.IKEV2_EAP);
+		profile.setSelectedAppsHandling(VpnProfile.SelectedAppsHandling.SELECTED_APPS_DISABLE);
+		profile.setExcludedSubnets(excluded);
+		profile.setFlags(0);
+		return profile;
+	}
+
+	private interface Scenario
+	{
+		/**
+		 * Do one measured iteration, returns the time it took in ns.
+		 */
+		long run(int iteration) throws InterruptedException;
+	}
+
+	private static void report(String name, Scenario scenario) throws InterruptedException
+	{
+		for (int i = 0; i < WARMUP; i++)
+		{
+			scenario.run(i);
+		}
+		long[] times = new long[ITERATIONS];
+		for (int i = 0; i < ITERATIONS; i++)
+		{
+			times[i] = scenario.run(i);
+		}
+		Arrays.sort(times);
+		System.out.println(String.format(Locale.US, "%-15s min %7.2f ms, median %7.2f ms, p90 %7.2f ms, max %7.2f ms",
+										 name, times[0] / 1e6, times[ITERATIONS / 2] / 1e6,
+										 times[ITERATIONS * 9 / 10] / 1e6, times[ITERATIONS - 1] / 1e6));
+	}
+
+	@Test
+	public void benchmark() throws InterruptedException
+	{
+		final VpnProfile first = createProfile("first", "192.168.0.0/16 fd00::/8");
+		final VpnProfile second = createProfile("second", "10.0.0.0/8 172.16.0.0/12");
+
+		Scenario connect = new Scenario()
+		{
+			@Override
+			public long run(int iteration) throws InterruptedException
+			{
+				long start = System.nanoTime();
+				mService.connect(first);
+				long time = System.nanoTime() - start;
+				mService.setNextProfile(null);
+				mBridge.awaitDeinitialized();
+				return time;
+			}
+		};
+		report("connect", connect);
+		assertTrue(mService.mRoutes >= ROUTES_IPV4 + ROUTES_IPV6);
+
+		mBridge.setBatched(true);
+		report("connect (bulk)", connect);
+		assertTrue(mService.mRoutes >= ROUTES_IPV4 + ROUTES_IPV6);
+		mBridge.setBatched(false);
+
+		mService.connect(first);
+		report("reconnect", new Scenario()
+		{
+			@Override
+			public long run(int iteration) throws InterruptedException
+			{
+				long start = System.nanoTime();
+				mService.connect(first);
+				return System.nanoTime() - start;
+			}
+		});
+
+		report("profile switch", new Scenario()
+		{
+			@Override
+			public long run(int iteration) throws InterruptedException
+			{
+				long start = System.nanoTime();
+				mService.connect(iteration % 2 == 0 ? second : first);
+				return System.nanoTime() - start;
+			}
+		});
+	}
+}
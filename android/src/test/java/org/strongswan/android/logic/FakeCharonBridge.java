@@ -0,0 +1,196 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.logic;
+
+import java.nio.ByteBuffer;
+import java.util.Locale;
+import java.util.concurrent.Semaphore;
+
+/**
+ * In-process stand-in for the daemon.  When a connection is initiated, it calls back the
+ * BuilderAdapter and the service from a separate thread, like the daemon would, with a
+ * configurable number of routes and configurable delays.  Addresses and routes are passed
+ * either individually or via the bulk methods.
+ */
+public class FakeCharonBridge implements CharonBridge
+{
+	/* 10.10.0.2 and fd10::2 */
+	private static final byte[] ADDRESSES = {10, 10, 0, 2, (byte)0xfd, 0x10, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 2};
+	private static final byte[] DNS_SERVER = {10, 10, 0, 1};
+	private long mInitializeDelay, mEstablishDelay, mConnectDelay;
+	private String[] mRoutes = {};
+	private int[] mPrefixes = {};
+	private int[] mFamilies = {};
+	private byte[] mPackedRoutes = {};
+	private boolean mBatched;
+	private CharonVpnService.BuilderAdapter mBuilder;
+	private Thread mThread;
+	private final Semaphore mDeinitialized = new Semaphore(0);
+
+	/**
+	 * Delays (in ms) of initializeCharon(), before the TUN device is configured after initiating,
+	 * and before the connection is reported as established afterwards.
+	 */
+	public FakeCharonBridge setDelays(long initialize, long establish, long connect)
+	{
+		mInitializeDelay = initialize;
+		mEstablishDelay = establish;
+		mConnectDelay = connect;
+		return this;
+	}
+
+	/**
+	 * Number of routes installed for each address family.
+	 */
+	public FakeCharonBridge setRoutes(int ipv4, int ipv6)
+	{
+		int count = ipv4 + ipv6;
+		mRoutes = new String[count];
+		mPrefixes = new int[count];
+		mFamilies = new int[count];
+		mPackedRoutes = new byte[ipv4 * 4 + ipv6 * 16];
+		ByteBuffer packed = ByteBuffer.wrap(mPackedRoutes);
+		/* leave gaps so the routes are not merged */
+		for (int i = 0; i < ipv4; i++)
+		{
+			int addr = (11 << 24) + ((2 * i) << 8);
+			mRoutes[i] = String.format(Locale.US, "%d.%d.%d.0", addr >>> 24, (addr >> 16) & 0xff, (addr >> 8) & 0xff);
+			mPrefixes[i] = 24;
+			mFamilies[i] = CharonVpnService.FAMILY_IPV4;
+			packed.putInt(addr);
+		}
+		for (int i = 0; i < ipv6; i++)
+		{
+			mRoutes[ipv4 + i] = String.format(Locale.US, "2001:db8:%x::", 2 * i);
+			mPrefixes[ipv4 + i] = 48;
+			mFamilies[ipv4 + i] = CharonVpnService.FAMILY_IPV6;
+			packed.putLong(0x20010db800000000L | ((2L * i) << 16)).putLong(0);
+		}
+		return this;
+	}
+
+	/**
+	 * Whether to use the bulk methods of BuilderAdapter to install addresses, routes and DNS
+	 * servers, instead of calling it for each of them.
+	 */
+	public FakeCharonBridge setBatched(boolean batched)
+	{
+		mBatched = batched;
+		return this;
+	}
+
+	/**
+	 * Wait until deinitializeCharon() is called (calls before this one also count).
+	 */
+	public void awaitDeinitialized() throws InterruptedException
+	{
+		mDeinitialized.acquire();
+	}
+
+	@Override
+	public boolean initializeCharon(CharonVpnService service, CharonVpnService.BuilderAdapter builder, String logfile,
+									String appdir, boolean byod, boolean ipv6)
+	{
+		if (!sleep(mInitializeDelay))
+		{
+			return false;
+		}
+		mBuilder = builder;
+		return true;
+	}
+
+	@Override
+	public void deinitializeCharon(CharonVpnService service)
+	{
+		Thread thread = mThread;
+		if (thread != null)
+		{
+			thread.interrupt();
+			try
+			{
+				thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+			}
+		}
+		mThread = null;
+		mBuilder = null;
+		mDeinitialized.release();
+	}
+
+	@Override
+	public void initiate(final CharonVpnService service, String config)
+	{
+		final CharonVpnService.BuilderAdapter builder = mBuilder;
+		mThread = new Thread(new Runnable()
+		{
+			@Override
+			public void run()
+			{
+				if (!sleep(mEstablishDelay))
+				{
+					return;
+				}
+				if (mBatched)
+				{
+					builder.addAddresses(new int[]{CharonVpnService.FAMILY_IPV4, CharonVpnService.FAMILY_IPV6},
+										 ADDRESSES, new int[]{32, 128});
+					builder.addRoutes(mFamilies, mPackedRoutes, mPrefixes);
+					builder.addDnsServers(new int[]{CharonVpnService.FAMILY_IPV4}, DNS_SERVER);
+				}
+				else
+				{
+					builder.addAddress("10.10.0.2", 32);
+					builder.addAddress("fd10::2", 128);
+					for (int i = 0; i < mRoutes.length; i++)
+					{
+						builder.addRoute(mRoutes[i], mPrefixes[i]);
+					}
+					builder.addDnsServer("10.10.0.1");
+				}
+				builder.setMtu(1400);
+				if (builder.establish() < 0)
+				{
+					service.updateStatus(CharonVpnService.STATE_GENERIC_ERROR);
+					return;
+				}
+				if (sleep(mConnectDelay))
+				{
+					service.updateStatus(CharonVpnService.STATE_CHILD_SA_UP);
+				}
+			}
+		});
+		mThread.start();
+	}
+
+	private static boolean sleep(long ms)
+	{
+		if (ms <= 0)
+		{
+			return true;
+		}
+		try
+		{
+			Thread.sleep(ms);
+			return true;
+		}
+		catch (InterruptedException e)
+		{
+			return false;
+		}
+	}
+}
@@ -0,0 +1,119 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class IPAddressParserTest
+{
+	private static final String[] VALID_IPV4 = {"0.0.0.0", "255.255.255.255", "10.0.0.1", "192.168.100.200",
+		"1.2.3.4", "0.10.100.0"};
+	private static final String[] VALID_IPV6 = {"::", "::1", "1::", "1:2:3:4:5:6:7:8", "1::8", "1:2::7:8",
+		"::2:3:4:5:6:7:8", "1:2:3:4:5:6:7::", "2001:DB8::abcd:EF01", "fe80::0:0:1", "0:0:0:0:0:0:0:0",
+		"ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff", "2001:db8:0:0:ffff::", "::ffff:10.1.2.3", "::10.1.2.3",
+		"1:2:3:4:5:6:10.1.2.3", "1::6:10.1.2.3", "0001:0db8::0000:00ff"};
+	private static final String[] INVALID = {"", "1", "1.2.3", "1.2.3.4.5", "256.0.0.0", "1.2.3.04", "01.2.3.4",
+		"00.0.0.0", "1..2.3", ".1.2.3", "1.2.3.", "1.2.3.-4", " 1.2.3.4", "1.2.3.4 ", "a.b.c.d", "0x1.2.3.4",
+		":", ":::", "::1::", "1::2::3", ":1:2:3:4:5:6:7", "1:2:3:4:5:6:7:", "1:2:3:4:5:6:7:8:9", "1:2:3:4:5:6:7",
+		"1:2:3:4:5:6:7:8::", "::1:2:3:4:5:6:7:8", "12345::", "1:2:3:4:5:6:7:g", "1::2:3:4:5:6:7:8",
+		"1:2:3:4:5:6:7:10.1.2.3", "::10.1.2", "::10.1.2.3:1", "::10.1.2.300", "::ffff:010.1.2.3", "10.1.2.3::",
+		"1:2:3:4:5:6:7:8%eth0", "fe80::1%1", "[::1]", "vpn.example.com"};
+
+	@Test
+	public void testValid() throws UnknownHostException
+	{
+		byte[] bytes = new byte[16];
+		long[] longs = new long[2];
+		for (String addr : VALID_IPV4)
+		{
+			Arrays.fill(bytes, (byte)0xff);
+			assertEquals(addr, IPAddressParser.IPv4, IPAddressParser.parse(addr, bytes));
+			assertArrayEquals(addr, InetAddress.getByName(addr).getAddress(), Arrays.copyOf(bytes, 4));
+			assertEquals(addr, IPAddressParser.IPv4, IPAddressParser.parse(addr, 0, addr.length(), longs));
+			assertEquals(addr, 0, longs[0]);
+			assertEquals(addr, IPRange.addressLow(Arrays.copyOf(bytes, 4)), longs[1]);
+			assertEquals(addr, IPAddressParser.IPv4, IPAddressParser.getFamily(addr));
+		}
+		for (String addr : VALID_IPV6)
+		{
+			assertEquals(addr, IPAddressParser.IPv6, IPAddressParser.parse(addr, bytes));
+			/* InetAddress converts IPv4-mapped addresses, so compare to the raw address */
+			byte[] expected = InetAddress.getByName(addr).getAddress();
+			if (expected.length == 4)
+			{
+				byte[] ipv4 = expected;
+				expected = new byte[16];
+				expected[10] = expected[11] = (byte)0xff;
+				System.arraycopy(ipv4, 0, expected, 12, 4);
+			}
+			assertArrayEquals(addr, expected, bytes);
+			assertEquals(addr, IPAddressParser.IPv6, IPAddressParser.parse(addr, 0, addr.length(), longs));
+			assertEquals(addr, IPRange.addressHigh(bytes), longs[0]);
+			assertEquals(addr, IPRange.addressLow(bytes), longs[1]);
+			assertEquals(addr, IPAddressParser.IPv6, IPAddressParser.getFamily(addr));
+		}
+	}
+
+	@Test
+	public void testInvalid()
+	{
+		byte[] bytes = new byte[16];
+		long[] longs = new long[2];
+		for (String addr : INVALID)
+		{
+			assertEquals(addr, IPAddressParser.INVALID, IPAddressParser.parse(addr, bytes));
+			assertEquals(addr, IPAddressParser.INVALID, IPAddressParser.parse(addr, 0, addr.length(), longs));
+			assertEquals(addr, IPAddressParser.INVALID, IPAddressParser.getFamily(addr));
+		}
+	}
+
+	@Test
+	public void testSubSequence()
+	{
+		long[] longs = new long[2];
+		String str = "x10.1.2.3/24";
+		assertEquals(IPAddressParser.IPv4, IPAddressParser.parse(str, 1, 9, longs));
+		assertEquals(0x0a010203L, longs[1]);
+		str = "2001:db8::1-2001:db8::2";
+		assertEquals(IPAddressParser.IPv6, IPAddressParser.parse(str, 12, str.length(), longs));
+		assertEquals(0x20010db800000000L, longs[0]);
+		assertEquals(2, longs[1]);
+		assertEquals(IPAddressParser.INVALID, IPAddressParser.parse(str, 0, 12, longs));
+		assertEquals(IPAddressParser.INVALID, IPAddressParser.parse(str, 0, 0, longs));
+	}
+
+	@Test
+	public void testIPv4Mapped()
+	{
+		long[] longs = new long[2];
+		IPAddressParser.parse("::ffff:10.1.2.3", 0, 15, longs);
+		assertTrue(IPAddressParser.isIPv4Mapped(longs[0], longs[1]));
+		IPAddressParser.parse("::ffff:a01:203", 0, 14, longs);
+		assertTrue(IPAddressParser.isIPv4Mapped(longs[0], longs[1]));
+		IPAddressParser.parse("::10.1.2.3", 0, 10, longs);
+		assertFalse(IPAddressParser.isIPv4Mapped(longs[0], longs[1]));
+		IPAddressParser.parse("1::ffff:10.1.2.3", 0, 16, longs);
+		assertFalse(IPAddressParser.isIPv4Mapped(longs[0], longs[1]));
+	}
+}
@@ -0,0 +1,201 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+public class IPRangeLoaderTest
+{
+	/**
+	 * Reader that returns a single character per call, so tokens span multiple reads.
+	 */
+	private static class SlowReader extends StringReader
+	{
+		SlowReader(String s)
+		{
+			super(s);
+		}
+
+		@Override
+		public int read(char[] cbuf, int off, int len) throws IOException
+		{
+			return super.read(cbuf, off, Math.min(len, 1));
+		}
+	}
+
+	private static String randomRanges(Random random, int count)
+	{
+		StringBuilder sb = new StringBuilder();
+		for (int i = 0; i < count; i++)
+		{
+			String sep = random.nextInt(10) == 0 ? "\t\n " : " ";
+			switch (random.nextInt(4))
+			{
+				case 0:
+					sb.append(String.format(Locale.US, "10.%d.%d.0/%d", random.nextInt(4), random.nextInt(256),
+											16 + random.nextInt(17)));
+					break;
+				case 1:
+					sb.append(String.format(Locale.US, "10.%d.%d.%d-10.%d.%d.%d", random.nextInt(4), random.nextInt(256),
+											random.nextInt(256), random.nextInt(4), random.nextInt(256),
+											random.nextInt(256)));
+					break;
+				case 2:
+					sb.append(String.format(Locale.US, "2001:db8:%x::/%d", random.nextInt(64), 40 + random.nextInt(89)));
+					break;
+				default:
+					sb.append(String.format(Locale.US, "2001:db8::%x:ffff:ffff:ff%02x-2001:db8::%x:0:0:%x",
+											random.nextInt(4), random.nextInt(256), random.nextInt(4),
+											random.nextInt(256)));
+					break;
+			}
+			sb.append(sep);
+		}
+		return sb.toString();
+	}
+
+	private static String reference(String ranges) throws UnknownHostException
+	{
+		IPRangeSet set = new IPRangeSet();
+		for (String range : ranges.trim().split("\\s+"))
+		{
+			set.add(new IPRange(range));
+		}
+		return set.toString();
+	}
+
+	@Test
+	public void testRandom() throws IOException
+	{
+		Random random = new Random(42);
+		for (int count : new int[]{1, 10, 300, 2000})
+		{
+			String ranges = randomRanges(random, count);
+			String expected = reference(ranges);
+			assertEquals(expected, IPRangeSet.load(ranges).toString());
+			assertEquals(expected, IPRangeSet.load(new StringReader(ranges)).toString());
+			assertEquals(expected, IPRangeSet.load(ByteBuffer.wrap(ranges.getBytes(Charset.forName("US-ASCII")))).toString());
+		}
+	}
+
+	@Test
+	public void testReader() throws IOException
+	{
+		String ranges = "10.0.0.0/24 10.0.1.0-10.0.1.255\n2001:db8::/32";
+		assertEquals(reference(ranges), IPRangeSet.load(new SlowReader(ranges)).toString());
+		assertEquals(0, IPRangeSet.load(new SlowReader(" \n\t")).size());
+	}
+
+	@Test
+	public void testByteBuffer() throws UnknownHostException
+	{
+		ByteBuffer buffer = ByteBuffer.wrap("xx 10.0.0.0/8 ::1 yy".getBytes(Charset.forName("US-ASCII")));
+		buffer.position(3).limit(17);
+		assertEquals("10.0.0.0/8 0:0:0:0:0:0:0:1/128", IPRangeSet.load(buffer).toString());
+		assertEquals(3, buffer.position());
+	}
+
+	@Test
+	public void testEmpty()
+	{
+		assertEquals(0, IPRangeSet.load("").size());
+		assertEquals(0, IPRangeSet.load(" \t\r\n").size());
+	}
+
+	@Test
+	public void testPrefix()
+	{
+		assertEquals("0.0.0.0/0 0:0:0:0:0:0:0:0/0", IPRangeSet.load("10.1.2.3/0 2001:db8::1/0").toString());
+		assertEquals("10.1.2.3/32 2001:db8:0:0:0:0:0:1/128",
+					 IPRangeSet.load("10.1.2.3/32 2001:db8::1/128").toString());
+		assertEquals("10.1.2.3/32 2001:db8:0:0:0:0:0:1/128", IPRangeSet.load("10.1.2.3 2001:db8::1").toString());
+		/* host bits across the boundary of the two longs */
+		assertEquals("2001:db8:0:0:0:0:0:0/63", IPRangeSet.load("2001:db8:0:1:ffff::/63").toString());
+	}
+
+	@Test
+	public void testRange()
+	{
+		assertEquals("10.0.0.1-10.0.0.6", IPRangeSet.load("10.0.0.6-10.0.0.1").toString());
+		assertEquals("0:0:0:0:0:0:0:0/0", IPRangeSet.load("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff-::").toString());
+	}
+
+	@Test
+	public void testMerge()
+	{
+		assertEquals("10.0.0.0/22", IPRangeSet.load("10.0.3.0/24 10.0.0.0/24 10.0.2.0/23 10.0.1.0/24").toString());
+		assertEquals("10.0.0.0-10.0.4.255", IPRangeSet.load("10.0.4.0/24 10.0.0.0/24 10.0.0.128-10.0.4.0").toString());
+		assertEquals("2001:db8:0:0:0:0:0:0/63", IPRangeSet.load("2001:db8:0:1::/64 2001:db8::/64").toString());
+		assertEquals("0.0.0.0/0", IPRangeSet.load("128.0.0.0/1 0.0.0.0/1").toString());
+	}
+
+	@Test
+	public void testIPv4Mapped() throws UnknownHostException
+	{
+		assertEquals("10.1.2.0/24", IPRangeSet.load("::ffff:10.1.2.3/24").toString());
+		assertEquals("10.1.2.1-10.1.3.255", IPRangeSet.load("::ffff:10.1.2.1-10.1.3.255").toString());
+		assertEquals("10.1.2.0/23", IPRangeSet.load("::ffff:a01:200/24 10.1.3.0/24").toString());
+		assertEquals(new IPRange("::ffff:10.1.2.3", 24).toString(), IPRangeSet.load("::ffff:10.1.2.3/24").toString());
+	}
+
+	@Test
+	public void testInvalid() throws IOException
+	{
+		String[] invalid = {"10.0.0.0/33", "::/129", "10.0.0.0/", "10.0.0.0/-1", "10.0.0.0/0008", "/8",
+							"10.0.0.0/8/8", "010.0.0.0/8", "10.0.0.1-::1", "10.0.0.1-", "-10.0.0.1",
+							"::ffff:10.0.0.0/120", "vpn.example.com", "2001:db8::/32x"};
+		for (String range : invalid)
+		{
+			try
+			{
+				IPRangeSet.load("10.0.0.0/8 " + range);
+				fail(range);
+			}
+			catch (IllegalArgumentException expected)
+			{
+			}
+			try
+			{
+				IPRangeSet.load(new StringReader(range));
+				fail(range);
+			}
+			catch (IllegalArgumentException expected)
+			{
+			}
+		}
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testTokenTooLong() throws IOException
+	{
+		StringBuilder sb = new StringBuilder("10.0.0.0/8 ");
+		for (int i = 0; i < 100; i++)
+		{
+			sb.append('0');
+		}
+		IPRangeSet.load(new StringReader(sb.toString()));
+	}
+}
@@ -0,0 +1,284 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.fail;
+
+public class IPRangeSetTest
+{
+	/* number of addresses in the random tests, the IPv6 ones cross the boundary of the longs */
+	private static final int SPACE = 1024;
+	private static final BigInteger BASE_IPV4 = new BigInteger("0a000000", 16);
+	private static final BigInteger BASE_IPV6 = new BigInteger("20010db8000000000000fffffffffe00", 16);
+
+	private static IPRange range(boolean ipv6, int from, int to) throws UnknownHostException
+	{
+		BigInteger base = ipv6 ? BASE_IPV6 : BASE_IPV4;
+		return new IPRange(address(ipv6, base.add(BigInteger.valueOf(from))),
+						   address(ipv6, base.add(BigInteger.valueOf(to))));
+	}
+
+	private static InetAddress address(boolean ipv6, BigInteger value) throws UnknownHostException
+	{
+		byte[] raw = value.toByteArray(), addr = new byte[ipv6 ? 16 : 4];
+		int len = Math.min(raw.length, addr.length);
+		System.arraycopy(raw, raw.length - len, addr, addr.length - len, len);
+		return InetAddress.getByAddress(addr);
+	}
+
+	/**
+	 * Build the expected ranges from the given bitmaps of addresses.
+	 */
+	private static String expected(boolean[] ipv4, boolean[] ipv6) throws UnknownHostException
+	{
+		List<IPRange> ranges = new ArrayList<>();
+		for (boolean family : new boolean[]{false, true})
+		{
+			boolean[] bitmap = family ? ipv6 : ipv4;
+			for (int i = 0; i < bitmap.length; i++)
+			{
+				if (bitmap[i])
+				{
+					int start = i;
+					while (i + 1 < bitmap.length && bitmap[i + 1])
+					{
+						i++;
+					}
+					ranges.add(range(family, start, i));
+				}
+			}
+		}
+		StringBuilder sb = new StringBuilder();
+		for (IPRange range : ranges)
+		{
+			sb.append(sb.length() > 0 ? " " : "").append(range);
+		}
+		return sb.toString();
+	}
+
+	@Test
+	public void testAddAdjacent() throws UnknownHostException
+	{
+		IPRangeSet set = new IPRangeSet();
+		set.add(new IPRange("10.0.2.0/24"));
+		set.add(new IPRange("10.0.0.0/24"));
+		assertEquals("10.0.0.0/24 10.0.2.0/24", set.toString());
+		set.add(new IPRange("10.0.1.0/24"));
+		assertEquals("10.0.0.0-10.0.2.255", set.toString());
+		assertEquals(1, set.size());
+		set.add(new IPRange("10.0.3.0/24"));
+		assertEquals("10.0.0.0/22", set.toString());
+		set.add(new IPRange("2001:db8::/64"));
+		set.add(new IPRange("2001:db8:0:1::/64"));
+		assertEquals("10.0.0.0/22 2001:db8:0:0:0:0:0:0/63", set.toString());
+	}
+
+	@Test
+	public void testAddOverlapping() throws UnknownHostException
+	{
+		IPRangeSet set = new IPRangeSet();
+		set.add(new IPRange("10.0.0.0/24"));
+		set.add(new IPRange("10.0.2.0/24"));
+		set.add(new IPRange("10.0.4.0/24"));
+		set.add(new IPRange("10.0.0.128/32"));
+		assertEquals(3, set.size());
+		set.add(new IPRange("10.0.0.128-10.0.4.0"));
+		assertEquals("10.0.0.0-10.0.4.255", set.toString());
+		set.add(new IPRange("0.0.0.0/0"));
+		assertEquals("0.0.0.0/0", set.toString());
+	}
+
+	@Test
+	public void testRemoveMiddle() throws UnknownHostException
+	{
+		IPRangeSet set = IPRangeSet.fromString("10.0.0.0/16 10.2.0.0/16");
+		set.remove(new IPRange("10.0.1.0/24"));
+		assertEquals("10.0.0.0/24 10.0.2.0-10.0.255.255 10.2.0.0/16", set.toString());
+		set.remove(new IPRange("10.0.0.255-10.2.0.0"));
+		assertEquals("10.0.0.0-10.0.0.254 10.2.0.1-10.2.255.255", set.toString());
+		set.remove(new IPRange("::/0"));
+		assertEquals(2, set.size());
+		set.remove(new IPRange("0.0.0.0/0"));
+		assertEquals(0, set.size());
+	}
+
+	@Test
+	public void testSelf() throws UnknownHostException
+	{
+		IPRangeSet set = IPRangeSet.fromString("10.0.0.0/16 2001:db8::/32");
+		set.add(set);
+		assertEquals(2, set.size());
+		set.remove(set);
+		assertEquals(0, set.size());
+	}
+
+	@Test
+	public void testFromString() throws UnknownHostException
+	{
+		assertEquals(0, IPRangeSet.fromString(null).size());
+		assertNull(IPRangeSet.fromString(""));
+		assertNull(IPRangeSet.fromString(" 10.0.0.0/8"));
+		assertNull(IPRangeSet.fromString("10.0.0.0/8 10.0.0.0/33"));
+		assertNull(IPRangeSet.fromString("vpn.example.com"));
+		assertEquals("10.0.0.0/8 0:0:0:0:0:0:0:1/128", IPRangeSet.fromString("10.0.0.0/8\t::1 \n").toString());
+	}
+
+	@Test
+	public void testSubnets() throws UnknownHostException
+	{
+		IPRangeSet set = IPRangeSet.fromString("10.0.0.1-10.0.0.6 192.168.0.0/16 ::1");
+		List<String> subnets = new ArrayList<>();
+		for (IPRange subnet : set.subnets())
+		{
+			subnets.add(subnet.toString());
+		}
+		assertEquals("[10.0.0.1/32, 10.0.0.2/31, 10.0.0.4/31, 10.0.0.6/32, 192.168.0.0/16, 0:0:0:0:0:0:0:1/128]",
+					 subnets.toString());
+	}
+
+	@Test
+	public void testRandom() throws UnknownHostException
+	{
+		Random random = new Random(42);
+		IPRangeSet set = new IPRangeSet();
+		boolean[] ipv4 = new boolean[SPACE], ipv6 = new boolean[SPACE];
+
+		for (int i = 0; i < 2000; i++)
+		{
+			int op = random.nextInt(4);
+			/* sets of different sizes, so both the sweep and the individual updates are used */
+			int count = op < 2 ? 1 : 1 + random.nextInt(random.nextBoolean() ? 4 : 60);
+			IPRangeSet other = new IPRangeSet();
+			List<IPRange> ranges = new ArrayList<>();
+			boolean[] ipv4Other = new boolean[SPACE], ipv6Other = new boolean[SPACE];
+			for (int j = 0; j < count; j++)
+			{
+				boolean ipv6Range = random.nextBoolean();
+				int from = random.nextInt(SPACE), to = Math.min(SPACE - 1, from + random.nextInt(random.nextBoolean() ? 8 : 128));
+				IPRange range = range(ipv6Range, from, to);
+				other.add(range);
+				ranges.add(range);
+				for (int k = from; k <= to; k++)
+				{
+					(ipv6Range ? ipv6Other : ipv4Other)[k] = true;
+				}
+			}
+			boolean add = op % 2 == 0;
+			for (int k = 0; k < SPACE; k++)
+			{
+				ipv4[k] = add ? ipv4[k] || ipv4Other[k] : ipv4[k] && !ipv4Other[k];
+				ipv6[k] = add ? ipv6[k] || ipv6Other[k] : ipv6[k] && !ipv6Other[k];
+			}
+			switch (op)
+			{
+				case 0:
+					set.add(ranges.get(0));
+					break;
+				case 1:
+					set.remove(ranges.get(0));
+					break;
+				case 2:
+					if (random.nextBoolean())
+					{
+						set.add(other);
+					}
+					else
+					{
+						set.addAll(ranges);
+					}
+					break;
+				case 3:
+					set.remove(other);
+					break;
+			}
+			assertEquals("operation " + i, expected(ipv4, ipv6), set.toString());
+		}
+	}
+
+	@Test
+	public void testEncodeDecode() throws UnknownHostException
+	{
+		IPRangeSet set = IPRangeSet.fromString("0.0.0.0/32 10.0.0.1-10.0.0.6 255.255.255.255 " +
+											   "::/128 2001:db8::ffff:ffff:ffff:ffff-2001:db8:0:1::1 ffff::/16");
+		ByteBuffer encoding = set.encode();
+		assertEquals(0, encoding.position());
+		assertEquals(set.toString(), IPRangeSet.decode(encoding).toString());
+		assertEquals(0, encoding.remaining());
+
+		/* at an offset within a larger buffer */
+		ByteBuffer buffer = ByteBuffer.allocate(encoding.limit() + 10);
+		buffer.position(3);
+		encoding.rewind();
+		buffer.put(encoding);
+		buffer.position(3);
+		assertEquals(set.toString(), IPRangeSet.decode(buffer).toString());
+		assertEquals(3 + encoding.limit(), buffer.position());
+
+		assertEquals(0, IPRangeSet.decode(new IPRangeSet().encode()).size());
+	}
+
+	@Test
+	public void testDecodeCorrupted() throws UnknownHostException
+	{
+		ByteBuffer encoding = IPRangeSet.fromString("10.0.0.0/8 2001:db8::/32").encode();
+		for (int i = 0; i < encoding.limit(); i++)
+		{
+			ByteBuffer copy = ByteBuffer.allocate(encoding.limit());
+			copy.put(encoding.duplicate()).flip();
+			copy.put(i, (byte)(copy.get(i) ^ 0x10));
+			try
+			{
+				IPRangeSet.decode(copy);
+				fail("modified byte " + i);
+			}
+			catch (IllegalArgumentException expected)
+			{
+			}
+		}
+	}
+
+	@Test
+	public void testDecodeTruncated() throws UnknownHostException
+	{
+		ByteBuffer encoding = IPRangeSet.fromString("10.0.0.0/8 2001:db8::/32").encode();
+		for (int len = 0; len < encoding.limit(); len++)
+		{
+			ByteBuffer copy = encoding.duplicate();
+			copy.limit(len);
+			try
+			{
+				IPRangeSet.decode(copy);
+				fail("truncated to " + len);
+			}
+			catch (IllegalArgumentException expected)
+			{
+			}
+		}
+		assertNotNull(IPRangeSet.decode(encoding.duplicate()));
+	}
+}
@@ -0,0 +1,251 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.UnknownHostException;
+import java.util.List;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+public class IPRangeTest
+{
+	private static String[] toStrings(List<IPRange> ranges)
+	{
+		String[] strings = new String[ranges.size()];
+		for (int i = 0; i < strings.length; i++)
+		{
+			strings[i] = ranges.get(i).toString();
+		}
+		return strings;
+	}
+
+	@Test
+	public void testPrefixZero() throws UnknownHostException
+	{
+		IPRange range = new IPRange("0.0.0.0/0");
+		assertEquals(InetAddress.getByName("0.0.0.0"), range.getFrom());
+		assertEquals(InetAddress.getByName("255.255.255.255"), range.getTo());
+		assertEquals(0, (int)range.getPrefix());
+		assertFalse(range.isIPv6());
+
+		range = new IPRange("::", 0);
+		assertEquals(InetAddress.getByName("::"), range.getFrom());
+		assertEquals(InetAddress.getByName("ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff"), range.getTo());
+		assertEquals(0, (int)range.getPrefix());
+		assertTrue(range.isIPv6());
+	}
+
+	@Test
+	public void testHostPrefix() throws UnknownHostException
+	{
+		IPRange range = new IPRange("192.168.1.255", 32);
+		assertEquals(range.getFrom(), range.getTo());
+		assertEquals("192.168.1.255/32", range.toString());
+		assertEquals(range, new IPRange("192.168.1.255"));
+
+		range = new IPRange("2001:db8::ffff:ffff:ffff:ffff", 128);
+		assertEquals(range.getFrom(), range.getTo());
+		assertEquals(128, (int)range.getPrefix());
+		assertEquals(range, new IPRange("2001:db8::ffff:ffff:ffff:ffff/128"));
+	}
+
+	@Test
+	public void testHostBits() throws UnknownHostException
+	{
+		assertEquals("10.1.2.0/24", new IPRange("10.1.2.3", 24).toString());
+		assertEquals("10.1.2.0/24", new IPRange("10.1.2.3/24").toString());
+		/* across the boundary of the two longs */
+		IPRange range = new IPRange("2001:db8:1:2:3:4:5:6", 63);
+		assertEquals(InetAddress.getByName("2001:db8:1:2::"), range.getFrom());
+		assertEquals(InetAddress.getByName("2001:db8:1:3:ffff:ffff:ffff:ffff"), range.getTo());
+		range = new IPRange("2001:db8:1:2:3:4:5:6", 65);
+		assertEquals(InetAddress.getByName("2001:db8:1:2::"), range.getFrom());
+		assertEquals(InetAddress.getByName("2001:db8:1:2:7fff:ffff:ffff:ffff"), range.getTo());
+	}
+
+	@Test
+	public void testInvalidPrefix() throws UnknownHostException
+	{
+		String[][] invalid = {{"10.0.0.0", "33"}, {"10.0.0.0", "-1"}, {"::", "129"}};
+		for (String[] args : invalid)
+		{
+			try
+			{
+				new IPRange(args[0], Integer.parseInt(args[1]));
+				fail(args[0] + "/" + args[1]);
+			}
+			catch (IllegalArgumentException expected)
+			{
+			}
+		}
+	}
+
+	@Test(expected = UnknownHostException.class)
+	public void testInvalidAddress() throws UnknownHostException
+	{
+		new IPRange("10.0.0.256", 24);
+	}
+
+	@Test
+	public void testIPv4Mapped() throws UnknownHostException
+	{
+		IPRange range = new IPRange("::ffff:10.1.2.3", 24);
+		assertFalse(range.isIPv6());
+		assertEquals(new IPRange("10.1.2.0/24"), range);
+	}
+
+	@Test
+	public void testRange() throws UnknownHostException
+	{
+		IPRange range = new IPRange("10.0.0.6", "10.0.0.1");
+		assertEquals(InetAddress.getByName("10.0.0.1"), range.getFrom());
+		assertEquals(InetAddress.getByName("10.0.0.6"), range.getTo());
+		assertNull(range.getPrefix());
+		assertEquals(range, new IPRange("10.0.0.1-10.0.0.6"));
+		/* a range that happens to be a subnet */
+		assertEquals(24, (int)new IPRange("10.0.0.0-10.0.0.255").getPrefix());
+		assertEquals(0, (int)new IPRange("::-ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff").getPrefix());
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testRangeFamilies() throws UnknownHostException
+	{
+		new IPRange("10.0.0.1", "::1");
+	}
+
+	@Test
+	public void testBytes() throws UnknownHostException
+	{
+		byte[] addresses = {1, 10, 1, 2, 3, 0x20, 0x01, 0x0d, (byte)0xb8, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 0, 1};
+		assertEquals(new IPRange("10.1.2.0/24"), new IPRange(addresses, 1, 4, 24));
+		assertEquals(new IPRange("2001:db8::1/128"), new IPRange(addresses, 5, 16, 128));
+		assertEquals(new IPRange("::/0"), new IPRange(addresses, 5, 16, 0));
+		assertArrayEquals(new byte[]{10, 1, 2, 0}, new IPRange(addresses, 1, 4, 24).getFrom().getAddress());
+	}
+
+	@Test
+	public void testBytesInvalid()
+	{
+		byte[] addresses = new byte[16];
+		int[][] invalid = {{0, 8, 0}, {1, 16, 0}, {-1, 4, 0}, {0, 4, 33}, {0, 16, 129}};
+		for (int[] args : invalid)
+		{
+			try
+			{
+				new IPRange(addresses, args[0], args[1], args[2]);
+				fail(args[0] + "/" + args[1] + "/" + args[2]);
+			}
+			catch (IllegalArgumentException expected)
+			{
+			}
+		}
+	}
+
+	@Test
+	public void testCompare() throws UnknownHostException
+	{
+		/* IPv4 before IPv6, by start address, smaller ranges first */
+		assertTrue(new IPRange("255.255.255.255/32").compareTo(new IPRange("::/0")) < 0);
+		assertTrue(new IPRange("10.0.0.0/24").compareTo(new IPRange("10.0.0.0/16")) < 0);
+		assertTrue(new IPRange("10.0.1.0/24").compareTo(new IPRange("10.0.0.0/16")) > 0);
+		/* unsigned comparison of both halves */
+		assertTrue(new IPRange("127.0.0.0/8").compareTo(new IPRange("128.0.0.0/8")) < 0);
+		assertTrue(new IPRange("7fff::/16").compareTo(new IPRange("8000::/16")) < 0);
+		assertTrue(new IPRange("::7fff:ffff:ffff:ffff/128").compareTo(new IPRange("::8000:0:0:0/128")) < 0);
+		assertEquals(0, new IPRange("10.0.0.0/24").compareTo(new IPRange("10.0.0.0-10.0.0.255")));
+	}
+
+	@Test
+	public void testContainsOverlaps() throws UnknownHostException
+	{
+		IPRange range = new IPRange("10.0.0.0/16");
+		assertTrue(range.contains(new IPRange("10.0.255.255/32")));
+		assertTrue(range.contains(range));
+		assertFalse(range.contains(new IPRange("10.0.255.0-10.1.0.0")));
+		assertTrue(range.overlaps(new IPRange("10.0.255.0-10.1.0.0")));
+		assertFalse(range.overlaps(new IPRange("10.1.0.0/16")));
+		assertFalse(new IPRange("::/0").overlaps(new IPRange("0.0.0.0/0")));
+	}
+
+	@Test
+	public void testMergeAdjacent() throws UnknownHostException
+	{
+		assertEquals(new IPRange("10.0.0.0/23"), new IPRange("10.0.0.0/24").merge(new IPRange("10.0.1.0/24")));
+		assertEquals(new IPRange("10.0.0.0/23"), new IPRange("10.0.1.0/24").merge(new IPRange("10.0.0.0/24")));
+		/* across the boundary of the two longs */
+		assertEquals(new IPRange("2001:db8::/63"),
+					 new IPRange("2001:db8::/64").merge(new IPRange("2001:db8:0:1::/64")));
+		assertNull(new IPRange("10.0.0.0/24").merge(new IPRange("10.0.2.0/24")));
+		assertNull(new IPRange("0.0.0.0/0").merge(new IPRange("::/0")));
+	}
+
+	@Test
+	public void testMergeOverlapping() throws UnknownHostException
+	{
+		IPRange range = new IPRange("10.0.0.0/16");
+		assertEquals(range, range.merge(new IPRange("10.0.1.0/24")));
+		assertEquals(range, new IPRange("10.0.1.0/24").merge(range));
+		assertEquals(new IPRange("10.0.0.0-10.1.0.255"), range.merge(new IPRange("10.0.128.0-10.1.0.255")));
+	}
+
+	@Test
+	public void testRemove() throws UnknownHostException
+	{
+		IPRange range = new IPRange("10.0.0.0/24");
+		assertArrayEquals(new String[]{"10.0.0.0/26", "10.0.0.128/25"},
+						  toStrings(range.remove(new IPRange("10.0.0.64/26"))));
+		assertArrayEquals(new String[]{"10.0.0.1-10.0.0.255"}, toStrings(range.remove(new IPRange("10.0.0.0/32"))));
+		assertArrayEquals(new String[]{"10.0.0.0-10.0.0.254"}, toStrings(range.remove(new IPRange("10.0.0.255/32"))));
+		assertArrayEquals(new String[]{"10.0.0.0/25"}, toStrings(range.remove(new IPRange("10.0.0.128-10.0.1.255"))));
+		assertArrayEquals(new String[]{"10.0.0.0/24"}, toStrings(range.remove(new IPRange("10.0.1.0/24"))));
+		assertArrayEquals(new String[]{"10.0.0.0/24"}, toStrings(range.remove(new IPRange("::/0"))));
+		assertEquals(0, range.remove(new IPRange("0.0.0.0/0")).size());
+		assertEquals(0, range.remove(range).size());
+	}
+
+	@Test
+	public void testRemoveCarry() throws UnknownHostException
+	{
+		/* the addresses before and after the removed one differ in the upper long */
+		IPRange range = new IPRange("::/0");
+		List<IPRange> remaining = range.remove(new IPRange("0:0:0:1::/128"));
+		assertEquals(2, remaining.size());
+		assertEquals(InetAddress.getByName("::ffff:ffff:ffff:ffff"), remaining.get(0).getTo());
+		assertEquals(InetAddress.getByName("0:0:0:1::1"), remaining.get(1).getFrom());
+	}
+
+	@Test
+	public void testToSubnets() throws UnknownHostException
+	{
+		assertArrayEquals(new String[]{"10.0.0.1/32", "10.0.0.2/31", "10.0.0.4/31", "10.0.0.6/32"},
+						  toStrings(new IPRange("10.0.0.1-10.0.0.6").toSubnets()));
+		assertArrayEquals(new String[]{"0.0.0.0/0"}, toStrings(new IPRange("0.0.0.0-255.255.255.255").toSubnets()));
+		assertEquals(32, new IPRange("0.0.0.1-255.255.255.255").toSubnets().size());
+		assertEquals(128, new IPRange("::1-ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff").toSubnets().size());
+
+		List<IPRange> subnets = new IPRange("::ffff:ffff:ffff:ffff-0:0:0:1::").toSubnets();
+		assertEquals(2, subnets.size());
+		assertEquals(128, (int)subnets.get(0).getPrefix());
+		assertEquals(new IPRange("0:0:0:1::/128"), subnets.get(1));
+	}
+}
@@ -0,0 +1,212 @@
+/*
+ * Copyright (C) 2026 Jason C.H
+ *
+ * This program is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.  See <http://www.fsf.org/copyleft/gpl.txt>.
+ *
+ * This program is distributed in the hope that it will be useful, but
+ * WITHOUT ANY WARRANTY; without even the implied warranty of MERCHANTABILITY
+ * or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU General Public License
+ * for more details.
+ */
+
+package org.strongswan.android.utils;
+
+import org.junit.Test;
+
+import java.math.BigInteger;
+import java.net.UnknownHostException;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class SubnetCoverTest
+{
+	private static BigInteger size(IPRange subnet)
+	{
+		return BigInteger.ONE.shiftLeft(subnet.getBits() - subnet.getPrefix());
+	}
+
+	private static BigInteger size(Iterable<IPRange> subnets)
+	{
+		BigInteger size = BigInteger.ZERO;
+		for (IPRange subnet : subnets)
+		{
+			size = size.add(size(subnet));
+		}
+		return size;
+	}
+
+	/**
+	 * Check that the cover contains the set, stays within the limit and that the reported excess
+	 * matches.
+	 */
+	private static SubnetCover verify(IPRangeSet set, int limit)
+	{
+		SubnetCover cover = new SubnetCover(set, limit);
+		List<IPRange> subnets = cover.getSubnets();
+		boolean ipv4 = false, ipv6 = false;
+		for (IPRange range : set)
+		{
+			ipv4 |= !range.isIPv6();
+			ipv6 |= range.isIPv6();
+		}
+		/* one subnet per family is always used */
+		int max = ipv4 && ipv6 ? Math.max(limit, 2) : limit;
+		assertTrue(subnets.size() + " > " + max, subnets.size() <= max);
+
+		IPRangeSet covered = new IPRangeSet();
+		covered.addAll(subnets);
+		assertEquals("disjoint", size(subnets), size(covered.subnets()));
+		IPRangeSet remaining = new IPRangeSet();
+		remaining.add(set);
+		remaining.remove(covered);
+		assertEquals("not covered: " + remaining, 0, remaining.size());
+
+		assertEquals(size(subnets).subtract(size(set.subnets())), cover.getExcess());
+		for (IPRange subnet : cover.getWidened())
+		{
+			assertTrue(subnets.contains(subnet));
+		}
+		return cover;
+	}
+
+	/**
+	 * Minimal excess for covering the addresses in the given bitmap within the block of the given
+	 * size at the given offset with at most k subnets, computed over the full binary tree (null
+	 * if that's not possible).
+	 */
+	private static BigInteger optimal(boolean[] bitmap, int offset, int size, int k)
+	{
+		int count = 0;
+		for (int i = offset; i < offset + size; i++)
+		{
+			count += bitmap[i] ? 1 : 0;
+		}
+		if (count == 0 || (count == size && k > 0))
+		{
+			return BigInteger.ZERO;
+		}
+		if (k == 0)
+		{
+			return null;
+		}
+		BigInteger best = BigInteger.valueOf(size - count);
+		for (int i = 0; i <= k && size > 1; i++)
+		{
+			BigInteger left = optimal(bitmap, offset, size / 2, i);
+			BigInteger right = optimal(bitmap, offset + size / 2, size / 2, k - i);
+			if (left != null && right != null)
+			{
+				best = best.min(left.add(right));
+			}
+		}
+		return best;
+	}
+
+	@Test(expected = IllegalArgumentException.class)
+	public void testInvalidLimit()
+	{
+		new SubnetCover(new IPRangeSet(), 0);
+	}
+
+	@Test
+	public void testWithinLimit()
+	{
+		IPRangeSet set = IPRangeSet.fromString("10.0.0.1-10.0.0.6 2001:db8::/32");
+		SubnetCover cover = verify(set, 5);
+		assertEquals("[10.0.0.1/32, 10.0.0.2/31, 10.0.0.4/31, 10.0.0.6/32, 2001:db8:0:0:0:0:0:0/32]",
+					 cover.getSubnets().toString());
+		assertEquals(0, cover.getWidened().size());
+		assertEquals(BigInteger.ZERO, cover.getExcess());
+		assertEquals(0, verify(new IPRangeSet(), 1).getSubnets().size());
+	}
+
+	@Test
+	public void testWiden()
+	{
+		IPRangeSet set = IPRangeSet.fromString("10.0.0.0/24 10.0.2.0/24 10.0.8.0/24");
+		SubnetCover cover = verify(set, 2);
+		assertEquals("[10.0.0.0/22, 10.0.8.0/24]", cover.getSubnets().toString());
+		assertEquals("[10.0.0.0/22]", cover.getWidened().toString());
+		assertEquals(BigInteger.valueOf(512), cover.getExcess());
+
+		cover = verify(set, 1);
+		assertEquals("[10.0.0.0/20]", cover.getSubnets().toString());
+		assertEquals(BigInteger.valueOf(16 * 256 - 3 * 256), cover.getExcess());
+	}
+
+	@Test
+	public void testWholeSpace()
+	{
+		/* the excess is not representable as double or long */
+		SubnetCover cover = verify(IPRangeSet.fromString("::/128 ffff:ffff:ffff:ffff:ffff:ffff:ffff:ffff/128"), 1);
+		assertEquals("[0:0:0:0:0:0:0:0/0]", cover.getSubnets().toString());
+		assertEquals(BigInteger.ONE.shiftLeft(128).subtract(BigInteger.valueOf(2)), cover.getExcess());
+
+		cover = verify(IPRangeSet.fromString("0.0.0.0/32 255.255.255.255/32"), 1);
+		assertEquals("[0.0.0.0/0]", cover.getSubnets().toString());
+		assertEquals(BigInteger.ONE.shiftLeft(32).subtract(BigInteger.valueOf(2)), cover.getExcess());
+	}
+
+	@Test
+	public void testBothFamilies()
+	{
+		/* one subnet per family is always used, even if that sum exceeds 128 bits */
+		IPRangeSet set = IPRangeSet.fromString("0.0.0.0/32 255.255.255.255/32 ::/128 ffff::/128 ffff::2/128");
+		SubnetCover cover = verify(set, 1);
+		assertEquals("[0.0.0.0/0, 0:0:0:0:0:0:0:0/0]", cover.getSubnets().toString());
+
+		cover = verify(set, 3);
+		assertEquals(3, cover.getSubnets().size());
+		assertEquals("[0.0.0.0/0, 0:0:0:0:0:0:0:0/128, ffff:0:0:0:0:0:0:0/126]", cover.getSubnets().toString());
+	}
+
+	@Test
+	public void testOptimal()
+	{
+		Random random = new Random(42);
+		for (int i = 0; i < 200; i++)
+		{
+			boolean[] bitmap = new boolean[64];
+			StringBuilder ranges = new StringBuilder();
+			for (int j = random.nextInt(8); j >= 0; j--)
+			{
+				int from = random.nextInt(64), to = Math.min(63, from + random.nextInt(6));
+				ranges.append(String.format(Locale.US, "10.0.0.%d-10.0.0.%d ", from, to));
+				for (int k = from; k <= to; k++)
+				{
+					bitmap[k] = true;
+				}
+			}
+			IPRangeSet set = IPRangeSet.fromString(ranges.toString());
+			for (int limit = 1; limit <= 8; limit++)
+			{
+				assertEquals(ranges + "with " + limit, optimal(bitmap, 0, 64, limit),
+							 verify(set, limit).getExcess());
+			}
+		}
+	}
+
+	@Test
+	public void testLarge() throws UnknownHostException
+	{
+		Random random = new Random(42);
+		IPRangeSet set = new IPRangeSet();
+		for (int i = 0; i < 2000; i++)
+		{
+			set.add(new IPRange(String.format(Locale.US, "%d.%d.%d.0/%d", 1 + random.nextInt(223), random.nextInt(256),
+											  random.nextInt(256), 16 + random.nextInt(9))));
+			set.add(new IPRange(String.format(Locale.US, "2001:db8:%x::/%d", random.nextInt(65536), 32 + random.nextInt(97))));
+		}
+		for (int limit : new int[]{2, 10, 100, 1000})
+		{
+			verify(set, limit);
+		}
+	}
+}
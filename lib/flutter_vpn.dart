@@ -27,6 +27,26 @@ class FlutterVpn {
   /// inspected by [CharonErrorState]. Returns [null] on non-android platform.
   static Future<CharonErrorState?> get charonErrorState => FlutterVpnPlatform.instance.charonErrorState;
 
+  /// Get timings of recent connection attempts. (Android only)
+  ///
+  /// `timelines` lists the most recent completed attempts, each mapping the
+  /// reached phases (`connect`, `startCommand`, `initializeCharon`,
+  /// `initiate`, `firstCallback`, `establish`, `connected`) to the time in ms
+  /// since the first one. `percentiles` maps each phase, and `total`, to the
+  /// `count` of recorded attempts and the `p50`, `p90` and `p99` latencies in
+  /// ms since the previous phase. Returns [null] on non-android platform.
+  static Future<Map<String, dynamic>?> get connectionTimings => FlutterVpnPlatform.instance.connectionTimings;
+
+  /// Get statistics about the packets that apps sent while the connection was
+  /// blocked during the last reconnect, and that were dropped. (Android only)
+  ///
+  /// The map contains the number of `packets` and `bytes`, the `duration` in
+  /// ms between the first and the last packet, the `maxBurst` of packets read
+  /// in a row, and `protocols` maps `TCP`, `UDP`, `ICMP` and `other` to the
+  /// number of packets. Returns [null] if there was no reconnect yet or on
+  /// non-android platform.
+  static Future<Map<String, dynamic>?> get dropStatistics => FlutterVpnPlatform.instance.dropStatistics;
+
   /// Prepare for vpn connection. (Android only)
   ///
   /// For first connection it will show a dialog to ask for permission.
@@ -44,6 +64,16 @@ class FlutterVpn {
   ///
   /// This will create a background VPN service.
   /// MTU is only available on android.
+  /// [routeBudget] limits the number of routes installed per address family,
+  /// routes are widened as needed to stay within it. (Android only)
+  /// [captureSize] enables capturing packets sent while the connection is
+  /// blocked during reconnects to `blocking.pcapng` in the app's files
+  /// directory, which is used as ring buffer of this size in bytes (at most
+  /// 64 MiB). (Android only)
+  /// [includedSubnets] and [excludedSubnets] are whitespace separated lists of
+  /// subnets (e.g. `10.0.0.0/8`) or ranges (e.g. `10.0.0.1-10.0.0.9`) that are
+  /// routed through resp. excluded from the VPN, by default all traffic is
+  /// routed through it. (Android only)
   static Future<void> connectIkev2EAP({
     required String server,
     required String username,
@@ -51,6 +81,10 @@ class FlutterVpn {
     String? name,
     int? mtu,
     int? port,
+    int? routeBudget,
+    int? captureSize,
+    String? includedSubnets,
+    String? excludedSubnets,
   }) =>
       FlutterVpnPlatform.instance.connectIkev2EAP(
         server: server,
@@ -59,6 +93,10 @@ class FlutterVpn {
         name: name,
         mtu: mtu,
         port: port,
+        routeBudget: routeBudget,
+        captureSize: captureSize,
+        includedSubnets: includedSubnets,
+        excludedSubnets: excludedSubnets,
       );
 
   /// Connect to VPN. (IPSec)
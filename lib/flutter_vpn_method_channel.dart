@@ -57,6 +57,34 @@ class MethodChannelFlutterVpn extends FlutterVpnPlatform {
     return CharonErrorState.values[state!];
   }
 
+  /// Get timings of recent connection attempts. (Android only)
+  ///
+  /// `timelines` lists the most recent completed attempts, each mapping the
+  /// reached phases (`connect`, `startCommand`, `initializeCharon`,
+  /// `initiate`, `firstCallback`, `establish`, `connected`) to the time in ms
+  /// since the first one. `percentiles` maps each phase, and `total`, to the
+  /// `count` of recorded attempts and the `p50`, `p90` and `p99` latencies in
+  /// ms since the previous phase. Returns [null] on non-android platform.
+  @override
+  Future<Map<String, dynamic>?> get connectionTimings async {
+    if (!Platform.isAndroid) return null;
+    return await methodChannel.invokeMapMethod<String, dynamic>('getConnectionTimings');
+  }
+
+  /// Get statistics about the packets that apps sent while the connection was
+  /// blocked during the last reconnect, and that were dropped. (Android only)
+  ///
+  /// The map contains the number of `packets` and `bytes`, the `duration` in
+  /// ms between the first and the last packet, the `maxBurst` of packets read
+  /// in a row, and `protocols` maps `TCP`, `UDP`, `ICMP` and `other` to the
+  /// number of packets. Returns [null] if there was no reconnect yet or on
+  /// non-android platform.
+  @override
+  Future<Map<String, dynamic>?> get dropStatistics async {
+    if (!Platform.isAndroid) return null;
+    return await methodChannel.invokeMapMethod<String, dynamic>('getDropStatistics');
+  }
+
   /// Prepare for vpn connection. (Android only)
   ///
   /// For first connection it will show a dialog to ask for permission.
@@ -85,6 +113,16 @@ class MethodChannelFlutterVpn extends FlutterVpnPlatform {
   ///
   /// This will create a background VPN service.
   /// MTU is only available on android.
+  /// [routeBudget] limits the number of routes installed per address family,
+  /// routes are widened as needed to stay within it. (Android only)
+  /// [captureSize] enables capturing packets sent while the connection is
+  /// blocked during reconnects to `blocking.pcapng` in the app's files
+  /// directory, which is used as ring buffer of this size in bytes (at most
+  /// 64 MiB). (Android only)
+  /// [includedSubnets] and [excludedSubnets] are whitespace separated lists of
+  /// subnets (e.g. `10.0.0.0/8`) or ranges (e.g. `10.0.0.1-10.0.0.9`) that are
+  /// routed through resp. excluded from the VPN, by default all traffic is
+  /// routed through it. (Android only)
   @override
   Future<void> connectIkev2EAP({
     required String server,
@@ -93,6 +131,10 @@ class MethodChannelFlutterVpn extends FlutterVpnPlatform {
     String? name,
     int? mtu,
     int? port,
+    int? routeBudget,
+    int? captureSize,
+    String? includedSubnets,
+    String? excludedSubnets,
   }) async =>
       await methodChannel.invokeMethod('connect', {
         'Type': 'IKEv2',
@@ -103,6 +145,10 @@ class MethodChannelFlutterVpn extends FlutterVpnPlatform {
         'Name': name ?? server,
         if (mtu != null) 'mtu': mtu,
         if (port != null) 'port': port,
+        if (routeBudget != null) 'RouteBudget': routeBudget,
+        if (captureSize != null) 'CaptureSize': captureSize,
+        if (includedSubnets != null) 'IncludedSubnets': includedSubnets,
+        if (excludedSubnets != null) 'ExcludedSubnets': excludedSubnets,
       });
 
   /// Connect to VPN. (IPSec)
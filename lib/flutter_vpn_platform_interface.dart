@@ -49,6 +49,26 @@ abstract class FlutterVpnPlatform extends PlatformInterface {
   /// inspected by [CharonErrorState]. Returns [null] on non-android platform.
   Future<CharonErrorState?> get charonErrorState async => throw UnimplementedError();
 
+  /// Get timings of recent connection attempts. (Android only)
+  ///
+  /// `timelines` lists the most recent completed attempts, each mapping the
+  /// reached phases (`connect`, `startCommand`, `initializeCharon`,
+  /// `initiate`, `firstCallback`, `establish`, `connected`) to the time in ms
+  /// since the first one. `percentiles` maps each phase, and `total`, to the
+  /// `count` of recorded attempts and the `p50`, `p90` and `p99` latencies in
+  /// ms since the previous phase. Returns [null] on non-android platform.
+  Future<Map<String, dynamic>?> get connectionTimings async => throw UnimplementedError();
+
+  /// Get statistics about the packets that apps sent while the connection was
+  /// blocked during the last reconnect, and that were dropped. (Android only)
+  ///
+  /// The map contains the number of `packets` and `bytes`, the `duration` in
+  /// ms between the first and the last packet, the `maxBurst` of packets read
+  /// in a row, and `protocols` maps `TCP`, `UDP`, `ICMP` and `other` to the
+  /// number of packets. Returns [null] if there was no reconnect yet or on
+  /// non-android platform.
+  Future<Map<String, dynamic>?> get dropStatistics async => throw UnimplementedError();
+
   /// Prepare for vpn connection. (Android only)
   ///
   /// For first connection it will show a dialog to ask for permission.
@@ -66,6 +86,16 @@ abstract class FlutterVpnPlatform extends PlatformInterface {
   ///
   /// This will create a background VPN service.
   /// MTU is only available on android.
+  /// [routeBudget] limits the number of routes installed per address family,
+  /// routes are widened as needed to stay within it. (Android only)
+  /// [captureSize] enables capturing packets sent while the connection is
+  /// blocked during reconnects to `blocking.pcapng` in the app's files
+  /// directory, which is used as ring buffer of this size in bytes (at most
+  /// 64 MiB). (Android only)
+  /// [includedSubnets] and [excludedSubnets] are whitespace separated lists of
+  /// subnets (e.g. `10.0.0.0/8`) or ranges (e.g. `10.0.0.1-10.0.0.9`) that are
+  /// routed through resp. excluded from the VPN, by default all traffic is
+  /// routed through it. (Android only)
   Future<void> connectIkev2EAP({
     required String server,
     required String username,
@@ -73,6 +103,10 @@ abstract class FlutterVpnPlatform extends PlatformInterface {
     String? name,
     int? mtu,
     int? port,
+    int? routeBudget,
+    int? captureSize,
+    String? includedSubnets,
+    String? excludedSubnets,
   }) async =>
       throw UnimplementedError();
 